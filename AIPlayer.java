@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class contains one configuration of the AI (an "engine variant"), so that different
+ * searches can be compared by letting them play against each other (see Tournament).
+ *
+ * A variant is written as "<search>:<strength>[,threads=<n>][,table=<MB>][,book=<file>][,parity=<points>]", where the search is
+ *   alphabeta - the alpha-beta search with all the move ordering (strength: depth),
+ *   centre    - the alpha-beta search with the centre-first ordering only (strength: depth),
+ *   timed     - the iterative deepening search (strength: milliseconds per move),
+ *   minimax   - the original MinMax search (strength: depth),
+ *   expert    - the alpha-beta search with symmetry pruning, and the perfect-play solver for
+ *               small boards and endgames (strength: depth of the alpha-beta search).
+ * For example "alphabeta:6", "timed:50,threads=4" or "minimax:4". The opening book (see OpeningBook)
+ * is not used by the original MinMax search. "parity" scores the threats on each player's own rows
+ * at the leaves of the alpha-beta search (see NPC.setParityWeight).
+ *
+ * @author s2013670
+ */
+
+public final class AIPlayer {
+
+    public static final String ALPHA_BETA = "alphabeta";
+    public static final String CENTRE_ONLY = "centre";
+    public static final String TIMED = "timed";
+    public static final String MINIMAX = "minimax";
+    public static final String EXPERT = "expert";
+
+    private final String name;
+    private final String search;
+    private final int strength;
+    private final NPC npc;
+
+    // Positions visited during the last move (not counted by the original MinMax search).
+    private long lastNodes;
+
+
+    public AIPlayer(String name, String search, int strength, int threads, int tableSizeMb)
+    {
+        if (!search.equals(ALPHA_BETA) && !search.equals(CENTRE_ONLY) && !search.equals(TIMED) && !search.equals(MINIMAX)
+                && !search.equals(EXPERT)) {
+            throw new IllegalArgumentException("Unknown search: " + search);
+        }
+        if (strength < 1) throw new IllegalArgumentException("The depth (or time) has to be positive: " + strength);
+
+        this.name = name;
+        this.search = search;
+        this.strength = strength;
+        this.npc = new NPC(tableSizeMb);
+        npc.setThreads(threads);
+        if (search.equals(CENTRE_ONLY)) npc.setMoveOrdering(new MoveOrdering(false, false));
+        if (search.equals(EXPERT)) {
+            npc.setSolverThreshold(NPC.DEFAULT_SOLVER_THRESHOLD);
+            npc.setSymmetryPruning(true);
+        }
+    }
+
+    // Reads a variant written as described above.
+    public static AIPlayer parse(String variant)
+    {
+        String[] parts = variant.split(",");
+        String[] searchAndStrength = parts[0].split(":");
+        if (searchAndStrength.length != 2) throw new IllegalArgumentException("Expected <search>:<strength>, got: " + parts[0]);
+
+        int threads = 1;
+        int tableSizeMb = NPC.DEFAULT_TABLE_MB;
+        String book = null;
+        int parityWeight = 0;
+        for (int i = 1; i < parts.length; i++) {
+            String[] option = parts[i].split("=");
+            if (option.length == 2 && option[0].equals("threads")) threads = Integer.parseInt(option[1]);
+            else if (option.length == 2 && option[0].equals("table")) tableSizeMb = Integer.parseInt(option[1]);
+            else if (option.length == 2 && option[0].equals("book")) book = option[1];
+            else if (option.length == 2 && option[0].equals("parity")) parityWeight = Integer.parseInt(option[1]);
+            else throw new IllegalArgumentException("Unknown option: " + parts[i]);
+        }
+
+        AIPlayer player = new AIPlayer(variant, searchAndStrength[0], Integer.parseInt(searchAndStrength[1]), threads, tableSizeMb);
+        player.npc.setParityWeight(parityWeight);
+        if (book != null) {
+            try {
+                player.npc.addOpeningBook(OpeningBook.load(new File(book)));
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException("Cannot load the opening book " + book + ": " + e.getMessage());
+            }
+        }
+        return player;
+    }
+
+    // Chooses the move for the player whose turn it is (the board is left as it was).
+    public int chooseMove(Model model)
+    {
+        int column;
+        if (search.equals(MINIMAX)) {
+            // The original search maximises for 'O' ("AI") and minimises for 'X' ("Player").
+            model.setDifficulty(strength);
+            column = npc.minimax(model, strength, model.getPlayerTurn() == 2 ? "AI" : "Player")[1];
+            lastNodes = 0;
+            return column;
+        }
+
+        if (search.equals(TIMED)) column = npc.bestMoveTimed(model, strength);
+        else column = npc.bestMove(model, strength);
+        lastNodes = npc.getNodeCount();
+        return column;
+    }
+
+    public long getLastNodes()
+    {
+        return lastNodes;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    // Stops the threads of the search, if there are any.
+    public void shutdown()
+    {
+        npc.shutdown();
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class contains a FileHandling which saves the game on another thread, so that the game
+ * never waits for the disk.
+ *
+ * 'saveGame' only copies the board and hands the copy over to the writer thread. Saves which come
+ * in quick succession are coalesced: the writer waits up to 'maxDelayMillis' after the first of them
+ * and then writes the latest board only. So a save reaches the file at most 'maxDelayMillis' (plus
+ * the time of the write itself, and of the writes of other games before it) after it was asked for,
+ * and all the saves made in that time cost a single write.
+ *
+ * Loading and 'flush()' wait for the saves which are still pending. Deleting the save at the end of
+ * the game drops them instead (as well as any error of an earlier save). Whatever is pending when the
+ * program exits is written before it ends. An error of the writer is reported by the next save.
+ *
+ * All the games share one writer thread and one shutdown hook, which are started with the first
+ * save. The writer only knows about a game while it has a save pending, so a game which is over
+ * (or abandoned without 'close()') is not kept alive by it. 'close()' writes what is pending and
+ * lets go of the files of the game.
+ *
+ * @author s2013670
+ */
+
+public final class AsyncFileHandling extends FileHandling {
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+
+    // The state shared by all the games and the writer thread. The games with a save pending are in
+    // the order their first pending save came in. Everything below is guarded by 'LOCK'.
+    private static final Object LOCK = new Object();
+    private static final Set<AsyncFileHandling> PENDING = new LinkedHashSet<>();
+    private static Thread writer;
+    private static AsyncFileHandling writing;     // The game the writer is writing, if any.
+    private static boolean flushingAll;
+
+    // The board of the game, and the latest copy of it which is waiting to be saved.
+    private final Model live;
+    private final Model staged = new Model();
+    private final long maxDelayNanos;
+
+    private long pendingSince;
+    private boolean flushing;
+    private boolean closed;
+    private IOException failure;
+
+
+    // Saving into LastGame.dat (see FileHandling).
+    public AsyncFileHandling(Model model, long maxDelayMillis)
+    {
+        super(new Model());
+        live = model;
+        maxDelayNanos = maxDelayMillis * 1000000L;
+    }
+
+    public AsyncFileHandling(Model model, File file, long maxDelayMillis)
+    {
+        super(new Model(), file);
+        live = model;
+        maxDelayNanos = maxDelayMillis * 1000000L;
+    }
+
+    // Journal mode: the writer adds the moves made since the last write to the journal.
+    public AsyncFileHandling(Model model, MoveJournal journal, long maxDelayMillis)
+    {
+        super(new Model(), journal);
+        live = model;
+        maxDelayNanos = maxDelayMillis * 1000000L;
+    }
+
+    // Store mode: the game is saved into the store under its ID (see GameStore).
+    public AsyncFileHandling(Model model, GameStore store, long gameId, long maxDelayMillis)
+    {
+        super(new Model(), store, gameId);
+        live = model;
+        maxDelayNanos = maxDelayMillis * 1000000L;
+    }
+
+    @Override
+    public void saveGame() throws IOException
+    {
+        synchronized (LOCK) {
+            throwFailure();
+            if (closed) throw new IOException("The game is no longer being saved");
+
+            staged.copyFrom(live);
+            if (PENDING.add(this)) {
+                pendingSince = System.nanoTime();
+                startWriter();
+                LOCK.notifyAll();
+            }
+        }
+    }
+
+    // Waits until every save asked for so far is in the file.
+    public void flush() throws IOException
+    {
+        synchronized (LOCK) {
+            flushing = true;
+            LOCK.notifyAll();
+            try {
+                while (PENDING.contains(this) || writing == this) LOCK.wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the game to be saved");
+            }
+            finally {
+                flushing = false;
+            }
+            throwFailure();
+        }
+    }
+
+    // Waits until the saves of every game asked for so far are written, e.g. before the files are
+    // forced onto the disk when the program ends. Errors are left for each game to report.
+    public static void flushAll() throws InterruptedIOException
+    {
+        synchronized (LOCK) {
+            boolean wasFlushingAll = flushingAll;
+            flushingAll = true;
+            LOCK.notifyAll();
+            try {
+                while (!PENDING.isEmpty() || writing != null) LOCK.wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the games to be saved");
+            }
+            finally {
+                flushingAll = wasFlushingAll;
+            }
+        }
+    }
+
+    @Override
+    public boolean loadGame() throws IOException
+    {
+        flush();
+        boolean loaded = super.loadGame();
+        if (loaded) live.copyFrom(getModel());
+        return loaded;
+    }
+
+    @Override
+    public void deleteFile() throws IOException
+    {
+        synchronized (LOCK) {
+            PENDING.remove(this);
+            failure = null;
+            try {
+                // A write which has already started would put the file back.
+                while (writing == this) LOCK.wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the game to be saved");
+            }
+        }
+        super.deleteFile();
+    }
+
+    // Writes what is still pending. The game is not saved any more after this.
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (LOCK) {
+            if (closed) return;
+        }
+        try {
+            flush();
+        }
+        finally {
+            synchronized (LOCK) {
+                closed = true;
+            }
+            super.close();
+        }
+    }
+
+    private void throwFailure() throws IOException
+    {
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    // Called with 'LOCK' held.
+    private static void startWriter()
+    {
+        if (writer != null) return;
+        writer = new Thread(AsyncFileHandling::writeSaves, "game-saver");
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            Runtime.getRuntime().addShutdownHook(new Thread(AsyncFileHandling::saveOnExit, "game-saver-exit"));
+        }
+        catch (IllegalStateException e) {
+            // The program is exiting already, and whoever saves now waits for the save.
+        }
+    }
+
+    private static void saveOnExit()
+    {
+        try {
+            flushAll();
+        }
+        catch (InterruptedIOException e) {
+            System.err.println("The games could not be saved: " + e.getMessage());
+        }
+    }
+
+    private void write() throws IOException
+    {
+        super.saveGame();
+    }
+
+    // The writer thread: waits until the first save of a game is 'maxDelayMillis' old (or the game
+    // is being flushed), and writes the latest board of that game.
+    private static void writeSaves()
+    {
+        while (true) {
+            AsyncFileHandling game;
+            synchronized (LOCK) {
+                try {
+                    while ((game = nextDue()) == null) {
+                        long wait = nanosUntilDue();
+                        if (wait == Long.MAX_VALUE) LOCK.wait();
+                        else TimeUnit.NANOSECONDS.timedWait(LOCK, wait);
+                    }
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                PENDING.remove(game);
+                game.getModel().copyFrom(game.staged);
+                writing = game;
+            }
+
+            IOException error = null;
+            try {
+                game.write();
+            }
+            catch (IOException e) {
+                error = e;
+            }
+            catch (RuntimeException e) {
+                error = new IOException("The game could not be saved", e);
+            }
+
+            synchronized (LOCK) {
+                writing = null;
+                if (error != null) {
+                    game.failure = error;
+                    if (flushingAll) System.err.println("The game could not be saved: " + error.getMessage());
+                }
+                LOCK.notifyAll();
+            }
+        }
+    }
+
+    // The first game whose save is due, or null if there is none (called with 'LOCK' held).
+    private static AsyncFileHandling nextDue()
+    {
+        long now = System.nanoTime();
+        for (AsyncFileHandling game : PENDING) {
+            if (flushingAll || game.flushing || now - game.pendingSince >= game.maxDelayNanos) return game;
+        }
+        return null;
+    }
+
+    // How long until the next save is due (called with 'LOCK' held).
+    private static long nanosUntilDue()
+    {
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        for (AsyncFileHandling game : PENDING) wait = Math.min(wait, game.maxDelayNanos - (now - game.pendingSince));
+        return Math.max(wait, 1);
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class measures the speed of the hot paths of the game engine.
+ * Every benchmark is run on boards from 4x4 up to the biggest one, with several values of X,
+ * on positions where about half of the board has been filled with random (non-winning) moves.
+ *
+ * To run all the benchmarks:        java Benchmark
+ * To run only some of them:         java Benchmark <part of the name>   (e.g. "minimax" or "10x20")
+ * To run them quickly (less exact): java Benchmark --quick [<part of the name>]
+ *
+ * Each benchmark is warmed up first (so that the JIT compiler has done its job),
+ * then it is measured several times and the average time of one operation is printed.
+ *
+ * @author s2013670
+ */
+public final class Benchmark
+{
+	// Board sizes (rows x columns) and values of X to benchmark.
+	private static final int[][] SIZES = { {4, 4}, {6, 7}, {8, 12}, {Model.MAX_ROWS, Model.MAX_COLS} };
+	private static final int[] XS = {4, 5, 6};
+
+	private static int warmupIterations = 3;
+	private static int measuredIterations = 5;
+	private static long iterationNanos = 200000000L;
+
+	// Results are added up here, so that the JIT compiler cannot remove the benchmarked code.
+	private static volatile long sink;
+
+	// A piece of code to be measured, returning something to put into the sink.
+	private interface Operation
+	{
+		long run() throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String filter = "";
+		for (String arg : args) {
+			if (arg.equals("--quick")) {
+				warmupIterations = 1;
+				measuredIterations = 2;
+				iterationNanos = 50000000L;
+			}
+			else filter = arg;
+		}
+
+		System.out.printf("%-44s %14s %12s%n", "Benchmark", "ns/op", "+/- (%)");
+		for (int[] size : SIZES) {
+			for (int x : XS) {
+				if (x > Math.max(size[0], size[1])) continue;
+				runAll(size[0], size[1], x, filter);
+			}
+		}
+		System.out.println("sink: " + sink);
+	}
+
+	private static void runAll(int rows, int cols, int x, String filter) throws IOException
+	{
+		String board = rows + "x" + cols + " X=" + x;
+		Model model = halfFullBoard(rows, cols, x, new Random(rows * 1000 + cols * 10 + x));
+		WinDetector detector = new WinDetector(model);
+		NPC npc = new NPC();
+
+		// With a transposition table of (almost) no size, every alpha-beta search starts from scratch.
+		NPC npcWithoutTable = new NPC(0);
+
+		List<String> names = new ArrayList<>();
+		List<Operation> operations = new ArrayList<>();
+
+		names.add("WinDetector.isGameWon");
+		operations.add(() -> detector.isGameWon() ? 1 : 0);
+
+		names.add("WinDetector.isWinningMove");
+		operations.add(() -> {
+			long won = 0;
+			for (int c = 1; c <= cols; c++) if (detector.isWinningMove(c)) won++;
+			return won;
+		});
+
+		names.add("NPC.calculateScore");
+		operations.add(() -> npc.calculateScore(model));
+
+		names.add("NPC.scanScore");
+		operations.add(() -> npc.scanScore(model));
+
+		names.add("Model.makeMove+removePiece");
+		operations.add(() -> {
+			long moves = 0;
+			for (int c = 1; c <= cols; c++) {
+				if (model.isMoveValid(c)) {
+					model.makeMove(c);
+					model.removePiece(c);
+					moves++;
+				}
+			}
+			return moves;
+		});
+
+		// Drawing the board into a stream which throws it away: the whole board, and in ANSI mode
+		// only the cell of a piece which is dropped and then taken out again (two drawings).
+		PrintStream discarded = new PrintStream(OutputStream.nullOutputStream());
+		BoardRenderer renderer = new BoardRenderer(discarded, false);
+		BoardRenderer ansiRenderer = new BoardRenderer(discarded, true);
+		ansiRenderer.render(model);
+
+		names.add("BoardRenderer.render");
+		operations.add(() -> {
+			renderer.render(model);
+			return 1;
+		});
+
+		names.add("BoardRenderer.render ansi x2");
+		operations.add(() -> {
+			int column = 1;
+			while (!model.isMoveValid(column)) column++;
+			model.makeMove(column);
+			ansiRenderer.render(model);
+			model.removePiece(column);
+			ansiRenderer.render(model);
+			return column;
+		});
+
+		// The three levels of difficulty of the game (depths 1, 2 and 4).
+		for (int depth : new int[] {1, 2, 4}) {
+			names.add("NPC.minimax depth " + depth);
+			operations.add(() -> {
+				model.setDifficulty(depth);
+				return npc.minimax(model, depth, "AI")[1];
+			});
+
+			names.add("NPC.bestMove depth " + depth);
+			operations.add(() -> npcWithoutTable.bestMove(model, depth));
+		}
+
+		File file = File.createTempFile("benchmark", ".dat");
+		file.deleteOnExit();
+		Model loaded = new Model();
+		FileHandling saving = new FileHandling(model, file);
+		FileHandling loading = new FileHandling(loaded, file);
+		saving.saveGame();
+
+		names.add("FileHandling.saveGame");
+		operations.add(() -> {
+			saving.saveGame();
+			return file.length();
+		});
+
+		names.add("FileHandling.loadGame");
+		operations.add(() -> loading.loadGame() ? loaded.getNrCols() : 0);
+
+		// Two saves in journal mode: a move and taking it back (without forcing them onto the disk,
+		// like the saves above).
+		File journalFile = File.createTempFile("benchmark", ".log");
+		journalFile.deleteOnExit();
+		Model journaled = new Model(model);
+		FileHandling journaling = new FileHandling(journaled, new MoveJournal(journalFile, 0, 0, MoveJournal.DEFAULT_SNAPSHOT_INTERVAL));
+		journaling.saveGame();
+
+		names.add("FileHandling.saveGame journal x2");
+		operations.add(() -> {
+			int column = 1;
+			while (!journaled.isMoveValid(column)) column++;
+			journaled.makeMove(column);
+			journaled.switchTurn();
+			journaling.saveGame();
+			journaled.switchTurn();
+			journaled.removePiece(column);
+			journaling.saveGame();
+			return journalFile.length();
+		});
+
+		// Only the time the game waits for: the board is written by another thread.
+		File asyncFile = File.createTempFile("benchmark", ".dat");
+		asyncFile.deleteOnExit();
+		AsyncFileHandling asyncSaving = new AsyncFileHandling(model, asyncFile, AsyncFileHandling.DEFAULT_MAX_DELAY_MILLIS);
+
+		names.add("AsyncFileHandling.saveGame");
+		operations.add(() -> {
+			asyncSaving.saveGame();
+			return 1;
+		});
+
+		// A store of many games: saving one of them and loading another one.
+		File storeDirectory = Files.createTempDirectory("benchmark").toFile();
+		GameStore store = new GameStore(storeDirectory);
+		Model stored = new Model();
+		Random ids = new Random(1);
+		for (long id = 0; id < 1000; id++) store.save(id, model);
+
+		names.add("GameStore.save+load");
+		operations.add(() -> {
+			long id = ids.nextInt(1000);
+			store.save(id, model);
+			return store.load(id ^ 1, stored) ? stored.getNrCols() : 0;
+		});
+
+		for (int i = 0; i < names.size(); i++) {
+			String name = board + "  " + names.get(i);
+			if (name.contains(filter)) measure(name, operations.get(i));
+		}
+		file.delete();
+		journaling.deleteFile();
+		asyncSaving.deleteFile();
+		asyncSaving.close();
+		store.close();
+		for (File shard : storeDirectory.listFiles()) shard.delete();
+		storeDirectory.delete();
+	}
+
+	// Runs one benchmark and prints the average time of one operation (and the spread of the iterations).
+	private static void measure(String name, Operation operation) throws IOException
+	{
+		for (int i = 0; i < warmupIterations; i++) runIteration(operation);
+
+		double[] results = new double[measuredIterations];
+		double mean = 0;
+		for (int i = 0; i < measuredIterations; i++) {
+			results[i] = runIteration(operation);
+			mean += results[i] / measuredIterations;
+		}
+
+		double deviation = 0;
+		for (double result : results) deviation += (result - mean) * (result - mean) / measuredIterations;
+		System.out.printf("%-44s %14.1f %12.1f%n", name, mean, 100 * Math.sqrt(deviation) / mean);
+	}
+
+	// Repeats the operation for one iteration's worth of time and returns nanoseconds per operation.
+	private static double runIteration(Operation operation) throws IOException
+	{
+		long start = System.nanoTime();
+		long end = start + iterationNanos;
+		long count = 0;
+		long result = 0;
+		long now;
+		do {
+			result += operation.run();
+			count++;
+			now = System.nanoTime();
+		}
+		while (now < end);
+
+		sink += result;
+		return (double) (now - start) / count;
+	}
+
+	// A board of the given size, about half full, where no one has won yet. Player 2 (the AI) is to move.
+	private static Model halfFullBoard(int rows, int cols, int x, Random random)
+	{
+		Model model = new Model();
+		model.setDimensions(rows, cols);
+		model.setX(x);
+		model.setNumberOfPlayers(1);
+		model.setTurn(1);
+		WinDetector detector = new WinDetector(model);
+
+		int pieces = 0;
+		int attempts = 0;
+		while (pieces < rows * cols / 2 && attempts < 100 * rows * cols) {
+			attempts++;
+			int column = 1 + random.nextInt(cols);
+			if (!model.isMoveValid(column)) continue;
+
+			model.makeMove(column);
+			if (detector.isWinningMove(column)) {
+				model.removePiece(column);
+				continue;
+			}
+			model.switchTurn();
+			pieces++;
+		}
+		model.setTurn(2);
+		return model;
+	}
+}
@@ -0,0 +1,179 @@
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class draws the board for TextView.
+ *
+ * Everything but the pieces (the dividers and the numbers of the columns) only depends on the size
+ * of the board, so this "frame" is built once for each size and shared by all the renderers. Drawing
+ * the board is then a copy of the frame into a buffer kept by the renderer, the pieces written into
+ * their cells, and a single write of the whole buffer to the output (which is flushed, so the player
+ * sees the board even while the AI is thinking).
+ *
+ * In ANSI mode (for terminals and spectators which understand ANSI escape codes), the board is drawn
+ * once at the top of the screen and stays there, while the messages scroll underneath it. After that,
+ * only the cells which have changed since the last drawing are redrawn.
+ *
+ * @author s2013670
+ */
+public final class BoardRenderer
+{
+	// Every cell and every number of a column is 6 characters wide (including the divider on its left).
+	private static final int CELL_WIDTH = 6;
+
+	// Frames of the boards drawn so far, by their size.
+	private static final Map<Integer, byte[]> FRAMES = new ConcurrentHashMap<>();
+
+	private static final String ESC = "\033[";
+
+	private final PrintStream out;
+	private final boolean ansi;
+
+	// The drawing of the board, or the changes to it in ANSI mode (at most 12 bytes for every cell).
+	private byte[] buffer = new byte[12 * Model.MAX_ROWS * Model.MAX_COLS + 4];
+
+	// In ANSI mode: the size of the board on the screen (0 if there is none), and the pieces drawn in its cells.
+	private int drawnRows;
+	private int drawnCols;
+	private final char[] drawn = new char[Model.MAX_ROWS * Model.MAX_COLS];
+
+	public BoardRenderer(PrintStream out, boolean ansi)
+	{
+		this.out = out;
+		this.ansi = ansi;
+	}
+
+	public void render(Model model)
+	{
+		int rows = model.getNrRows();
+		int cols = model.getNrCols();
+		if (ansi && rows == drawnRows && cols == drawnCols) redrawChanges(model);
+		else if (ansi) drawAtTop(model);
+		else {
+			int length = fill(model);
+			out.write(buffer, 0, length);
+		}
+		out.flush();
+	}
+
+	// Lets the messages use the whole screen again (only needed in ANSI mode, once the game is over).
+	public void release()
+	{
+		if (!ansi || drawnRows == 0) return;
+		out.print(ESC + "r");
+		out.flush();
+		drawnRows = 0;
+		drawnCols = 0;
+	}
+
+	// Copies the frame into the buffer and writes the pieces into their cells. Returns the length of the drawing.
+	private int fill(Model model)
+	{
+		int rows = model.getNrRows();
+		int cols = model.getNrCols();
+		byte[] frame = frame(rows, cols);
+		if (buffer.length < frame.length) buffer = new byte[frame.length];
+		System.arraycopy(frame, 0, buffer, 0, frame.length);
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) buffer[cellOffset(i, j, cols)] = (byte) model.getBoard(i, j);
+		}
+		return frame.length;
+	}
+
+	// The position of the cell in the frame.
+	private static int cellOffset(int i, int j, int cols)
+	{
+		return (1 + 2 * i) * lineLength(cols) + CELL_WIDTH * j + 3;
+	}
+
+	private static int lineLength(int cols)
+	{
+		return CELL_WIDTH * cols + 2;
+	}
+
+	// The empty board of this size, followed by an empty line (as it has always been printed).
+	private static byte[] frame(int rows, int cols)
+	{
+		return FRAMES.computeIfAbsent(rows * (Model.MAX_COLS + 1) + cols, key -> {
+			String rowDivider = ("|" + "-".repeat(CELL_WIDTH - 1)).repeat(cols) + "|\n";
+			String emptyRow = ("|" + " ".repeat(CELL_WIDTH - 1)).repeat(cols) + "|\n";
+
+			StringBuilder sb = new StringBuilder(lineLength(cols) * (2 * rows + 5));
+			sb.append(rowDivider);
+			for (int i = 0; i < rows; i++) sb.append(emptyRow).append(rowDivider);
+			sb.append('|').append("-".repeat(CELL_WIDTH * cols - 1)).append("|\n");
+			for (int j = 1; j <= cols; j++) sb.append(j < 10 ? "|  " + j + "  " : "|  " + j + " ");
+			sb.append("|\n");
+			sb.append('|').append("=".repeat(CELL_WIDTH * cols - 1)).append("|\n");
+			sb.append('\n');
+			return sb.toString().getBytes(StandardCharsets.US_ASCII);
+		});
+	}
+
+	// ===========================================================================================
+	// =======================================  ANSI mode  =======================================
+	// ===========================================================================================
+
+	// Clears the screen, draws the whole board at the top, and keeps the messages underneath it.
+	private void drawAtTop(Model model)
+	{
+		int rows = model.getNrRows();
+		int cols = model.getNrCols();
+		int length = fill(model);
+		int lines = 2 * rows + 5;
+
+		out.print(ESC + "2J" + ESC + "H");
+		out.write(buffer, 0, length);
+		out.print(ESC + (lines + 1) + "r" + ESC + (lines + 1) + ";1H");
+
+		drawnRows = rows;
+		drawnCols = cols;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) drawn[i * cols + j] = model.getBoard(i, j);
+		}
+	}
+
+	// Moves the cursor to each cell which has changed, redraws it, and puts the cursor back
+	// (all of it put together in the buffer, and written at once).
+	private void redrawChanges(Model model)
+	{
+		int rows = model.getNrRows();
+		int cols = model.getNrCols();
+		int length = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				char piece = model.getBoard(i, j);
+				if (piece == drawn[i * cols + j]) continue;
+				drawn[i * cols + j] = piece;
+
+				if (length == 0) {
+					buffer[length++] = 27;
+					buffer[length++] = '7';
+				}
+				buffer[length++] = 27;
+				buffer[length++] = '[';
+				length = putNumber(2 + 2 * i, length);
+				buffer[length++] = ';';
+				length = putNumber(CELL_WIDTH * j + 4, length);
+				buffer[length++] = 'H';
+				buffer[length++] = (byte) piece;
+			}
+		}
+		if (length == 0) return;
+		buffer[length++] = 27;
+		buffer[length++] = '8';
+		out.write(buffer, 0, length);
+	}
+
+	// Writes the number (of at most 3 digits) into the buffer at the position. Returns the position after it.
+	private int putNumber(int number, int position)
+	{
+		if (number >= 100) buffer[position++] = (byte) ('0' + number / 100);
+		if (number >= 10) buffer[position++] = (byte) ('0' + number / 10 % 10);
+		buffer[position++] = (byte) ('0' + number % 10);
+		return position;
+	}
+}
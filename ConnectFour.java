@@ -1,5 +1,10 @@
 import java.awt.*;
-import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 
 /**
  * The main class of the Connect Four game.
@@ -14,24 +19,73 @@ public final class ConnectFour
 	 * Model-View-Controller (MVC). The main method instantiates each of these
 	 * components and then starts the game loop.
 	 *
-	 * @param args No arguments expected.
+	 * @param args "--journal" saves the game move by move into a journal (LastGame.log)
+	 *             instead of saving the whole board after every move,
+	 *             "--record <file>" writes everything the player inputs into the file,
+	 *             "--replay <file>" plays the game with the input from the file instead,
+	 *             "--ansi" keeps the board at the top of the screen (for terminals which
+	 *             understand ANSI escape codes),
+	 *             "--metrics <file>" writes the metrics of the AI into the file after the
+	 *             session (as JSON if the file ends with ".json", see EngineMetrics),
+	 *             "--trace <file>" writes every decision of the AI into the file (see SearchTrace), and
+	 *             "--ponder" lets the AI search its answers while the player thinks.
 	 */
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) throws IOException {
+		boolean journaling = false;
+		boolean ansi = false;
+		boolean ponder = false;
+		InputSource input = StreamInput.stdin();
+		File recordFile = null;
+		File metricsFile = null;
+		File traceFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--journal")) journaling = true;
+			else if (args[i].equals("--ansi")) ansi = true;
+			else if (args[i].equals("--ponder")) ponder = true;
+			else if (args[i].equals("--replay") && i + 1 < args.length) input = ScriptedInput.fromFile(new File(args[++i]));
+			else if (args[i].equals("--record") && i + 1 < args.length) recordFile = new File(args[++i]);
+			else if (args[i].equals("--metrics") && i + 1 < args.length) metricsFile = new File(args[++i]);
+			else if (args[i].equals("--trace") && i + 1 < args.length) traceFile = new File(args[++i]);
+			else throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		RecordingInput recording = null;
+		if (recordFile != null) input = recording = new RecordingInput(input, recordFile);
+
 		// Creates a model representing the state of the game.
 		Model model = new Model();
 		
 		// This text-based view is used to communicate with the user.
 		// It can print the state of the board and handles user input.
-		TextView view = new TextView();
+		// Its output is buffered and written out whenever the user has something to see.
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+		TextView view = new TextView(input, out, ansi);
 
 		// Contains the method which detects if one of the players had won.
 		WinDetector detector = new WinDetector(model);
 
 		// NPC implementation with variable difficulty setting.
 		NPC npc = new NPC();
+		npc.setPondering(ponder);
+
+		// What the AI has done and how long it took (only measured if it is written out).
+		EngineMetrics metrics = new EngineMetrics();
+		if (metricsFile != null) {
+			npc.setMetrics(metrics);
+			detector.setMetrics(metrics);
+		}
+		SearchTrace trace = (traceFile == null) ? null : SearchTrace.open(traceFile);
+		npc.setTrace(trace);
+
+		// Opening books generated with 'java OpeningBook' (if there are any in the working directory).
+		for (OpeningBook book : OpeningBook.loadAll(new File("."))) npc.addOpeningBook(book);
 
-		// Game saving and loading tool.
-		FileHandling fileHandling = new FileHandling(model);
+		// Game saving and loading tool. The game is saved in the background, so it never waits for the disk.
+		FileHandling fileHandling;
+		if (journaling) {
+			MoveJournal journal = new MoveJournal(new File("LastGame.log"));
+			fileHandling = new AsyncFileHandling(model, journal, AsyncFileHandling.DEFAULT_MAX_DELAY_MILLIS);
+		}
+		else fileHandling = new AsyncFileHandling(model, AsyncFileHandling.DEFAULT_MAX_DELAY_MILLIS);
 
 		// The controller facilitates communication between model and view.
 		// It also contains the main loop that controls the sequence of events.
@@ -40,6 +94,11 @@ public final class ConnectFour
 		
 		// Start a new session.
 		controller.startSession(true);
+		fileHandling.close();
+		if (recording != null) recording.close();
+		if (metricsFile != null) metrics.writeTo(metricsFile);
+		if (trace != null) trace.close();
+		out.flush();
 
 	}
 }
@@ -1,4 +1,4 @@
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * This class controls the flow of the game.
@@ -13,6 +13,9 @@ public final class Controller
 	private final WinDetector detector;
 	private final NPC npc;
 	private final FileHandling file;
+
+	// The threads searching the moves of the AI for many games at once (null to search with 'npc').
+	private final SearchPool searchPool;
 	
 	public Controller(Model model, TextView view, WinDetector detector, NPC npc, FileHandling file)
 	{
@@ -21,10 +24,22 @@ public final class Controller
 		this.detector = detector;
 		this.npc = npc;
 		this.file = file;
+		this.searchPool = null;
 	}
 
+	// A game of the game server: the moves of the AI are searched by the pool shared by all the games.
+	public Controller(Model model, TextView view, WinDetector detector, SearchPool searchPool, FileHandling file)
+	{
+		this.model = model;
+		this.view = view;
+		this.detector = detector;
+		this.npc = null;
+		this.file = file;
+		this.searchPool = searchPool;
+	}
 
-	public void startSession(boolean isNewSession) throws FileNotFoundException {
+
+	public void startSession(boolean isNewSession) throws IOException {
 		char startNewOrResume = 'N';
 
 		// If there is a saved game that hasn't been finished and the user chooses to resume it,
@@ -36,7 +51,10 @@ public final class Controller
 				if (startNewOrResume == 'R') {
 					boolean ableToLoad = file.loadGame();
 					if (ableToLoad) view.displayGameLoaded();
-					else startNewOrResume = 'N';
+					else {
+						view.displayNoSavedGame();
+						startNewOrResume = 'N';
+					}
 					break;
 				}
 				else if (startNewOrResume == 'N') break;
@@ -79,6 +97,7 @@ public final class Controller
 			if (players == 1) {
 				while (!model.isDifficultyValid(difficulty)) difficulty = view.askForDifficulty();
 				if (difficulty == 3) difficulty++;
+				else if (difficulty == 4) difficulty = NPC.EXPERT_DEPTH;
 				model.setDifficulty(difficulty);
 			}
 		}
@@ -92,13 +111,28 @@ public final class Controller
 		// =======================================================
 
 		int move = -1;
-		while (!model.boardFull() && move != 0 && !detector.isGameWon()) {
-			move = view.askForMove(model);
+
+		// Only a loaded board has to be scanned completely. After that, it is enough
+		// to check the lines going through the piece which has just been dropped.
+		boolean gameWon = startNewOrResume == 'R' && detector.isGameWon();
+
+		while (!model.boardFull() && move != 0 && !gameWon) {
+			// While the user thinks, the AI may already search its answers to their moves.
+			boolean ponder = npc != null && model.getNrPlayers() == 1;
+			if (ponder) npc.startPondering(model, model.getDifficulty());
+			try {
+				move = view.askForMove(model);
+			}
+			finally {
+				// Also when the input has ended, so the search never outlives the game.
+				if (ponder) npc.stopPondering();
+			}
 
 			if (model.isMoveValid(move)) {
 				if (move == 0) break;
 
 				model.makeMove(move);
+				gameWon = detector.isWinningMove(move);
 				model.switchTurn();
 			}
 			else {
@@ -117,12 +151,21 @@ public final class Controller
 												// is not used because if we were loading the last game,
 												// it has left being equal to 0.
 
-				if (detector.isGameWon() || model.boardFull()) break;
+				if (gameWon || model.boardFull()) break;
 
-				int moveAI = npc.minimax(model, model.getDifficulty(), "AI")[1];
+				// Only the "Expert" level switches on the perfect-play solver and symmetry pruning.
+				boolean expert = model.getDifficulty() == NPC.EXPERT_DEPTH;
+				int moveAI;
+				if (searchPool != null) moveAI = searchPool.bestMove(model, model.getDifficulty(), expert);
+				else {
+					npc.setSolverThreshold(expert ? NPC.DEFAULT_SOLVER_THRESHOLD : 0);
+					npc.setSymmetryPruning(expert);
+					moveAI = npc.bestMove(model, model.getDifficulty());
+				}
 				view.displayAIMove(moveAI);
 
 				model.makeMove(moveAI);
+				gameWon = detector.isWinningMove(moveAI);
 				model.switchTurn();
 
 				view.displayBoard(model);
@@ -134,7 +177,7 @@ public final class Controller
 		// The winner is only declared if their opponent had conceded or if a win is detected.
 		// It is possible not to have a winner - if the board is full but no one has X in a row.
 
-		if (move == 0 || detector.isGameWon()) {
+		if (move == 0 || gameWon) {
 			model.switchTurn();
 			view.displayWinner(model, model.getNrPlayers());
 		}
@@ -0,0 +1,228 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class contains the metrics of the engine: what the searches of the AI have done and how
+ * long they took, added up over all the moves of any number of NPCs (and threads) which share it.
+ *
+ *   counters     moves, positions visited (nodes), leaf evaluations, terminal positions, cutoffs
+ *                and transposition table hits, the effective branching factor (the average of
+ *                nodes^(1/depth) over the moves searched) and the depth reached,
+ *   histograms   the time of each move, of each search played in the games (the moves which needed
+ *                one, see NPC.bestMove), of 'calculateScore' (timed on one leaf evaluation of the
+ *                alpha-beta search out of every SCORE_SAMPLE_INTERVAL + 1, because timing them all
+ *                would take longer than the evaluations), of the win checks after every move
+ *                ('WinDetector.isWinningMove') and the full scans of a resumed game ('isGameWon'),
+ *                and of the original 'NPC.minimax' search, which is only used to compare the
+ *                searches (see Tournament).
+ *
+ * An NPC (see NPC.setMetrics) or a WinDetector only measures anything once it is given the metrics.
+ * The metrics are exported as JSON or in the text format of Prometheus, into a file ('writeTo') or
+ * from an HTTP endpoint on the local machine ('serve'): /metrics for Prometheus and /metrics.json.
+ *
+ * @author s2013670
+ */
+
+public final class EngineMetrics {
+
+    public static final int SCORE_SAMPLE_INTERVAL = 63;
+
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder searchedMoves = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LongAdder terminals = new LongAdder();
+    private final LongAdder cutoffs = new LongAdder();
+    private final LongAdder tableHits = new LongAdder();
+    private final DoubleAdder branchingFactors = new DoubleAdder();
+    private final LongAdder depths = new LongAdder();
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    public final LatencyHistogram moveTime = new LatencyHistogram();
+    public final LatencyHistogram searchTime = new LatencyHistogram();
+    public final LatencyHistogram scoreTime = new LatencyHistogram();
+    public final LatencyHistogram winningMoveTime = new LatencyHistogram();
+    public final LatencyHistogram gameWonTime = new LatencyHistogram();
+    public final LatencyHistogram legacyMinimaxTime = new LatencyHistogram();
+
+
+    // One move of the AI: how long it took, the depth the search reached, the positions it visited
+    // and what it counted (a move from the opening book, or one which needed no search, has no nodes).
+    public void recordMove(long nanos, int depth, long nodes, SearchCounters counters)
+    {
+        moveTime.record(nanos);
+        moves.increment();
+        if (nodes == 0) return;
+
+        searchTime.record(nanos);
+        searchedMoves.increment();
+        this.nodes.add(nodes);
+        leaves.add(counters.leaves);
+        terminals.add(counters.terminals);
+        cutoffs.add(counters.cutoffs);
+        tableHits.add(counters.tableHits);
+        if (depth > 0) branchingFactors.add(Math.pow(nodes, 1.0 / depth));
+        depths.add(depth);
+        maxDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    public long getMoves()
+    {
+        return moves.sum();
+    }
+
+    public long getNodes()
+    {
+        return nodes.sum();
+    }
+
+    // The average of nodes^(1/depth) over the moves which were searched.
+    public double getBranchingFactor()
+    {
+        long count = searchedMoves.sum();
+        return (count == 0) ? 0 : branchingFactors.sum() / count;
+    }
+
+    public double getMeanDepth()
+    {
+        long count = searchedMoves.sum();
+        return (count == 0) ? 0 : (double) depths.sum() / count;
+    }
+
+    // ===========================================================================================
+    // =========================================  Export  ========================================
+    // ===========================================================================================
+
+    public String toJson()
+    {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"moves\":").append(moves.sum())
+                .append(",\"searched_moves\":").append(searchedMoves.sum())
+                .append(",\"nodes\":").append(nodes.sum())
+                .append(",\"leaf_evaluations\":").append(leaves.sum())
+                .append(",\"terminal_positions\":").append(terminals.sum())
+                .append(",\"cutoffs\":").append(cutoffs.sum())
+                .append(",\"table_hits\":").append(tableHits.sum())
+                .append(",\"effective_branching_factor\":").append(String.format(Locale.ROOT, "%.3f", getBranchingFactor()))
+                .append(",\"depth\":{\"mean\":").append(String.format(Locale.ROOT, "%.2f", getMeanDepth()))
+                .append(",\"max\":").append(maxDepth.get()).append('}')
+                .append(",\"latency\":{");
+        appendJson(sb, "move", moveTime).append(',');
+        appendJson(sb, "search", searchTime).append(',');
+        appendJson(sb, "calculate_score", scoreTime).append(',');
+        appendJson(sb, "is_winning_move", winningMoveTime).append(',');
+        appendJson(sb, "is_game_won", gameWonTime).append(',');
+        appendJson(sb, "legacy_minimax", legacyMinimaxTime);
+        return sb.append("}}").toString();
+    }
+
+    private static StringBuilder appendJson(StringBuilder sb, String name, LatencyHistogram histogram)
+    {
+        return sb.append('"').append(name).append("\":{\"count\":").append(histogram.getCount())
+                .append(",\"mean_ns\":").append(histogram.getMeanNanos())
+                .append(",\"p50_ns\":").append(histogram.getPercentileNanos(0.5))
+                .append(",\"p90_ns\":").append(histogram.getPercentileNanos(0.9))
+                .append(",\"p99_ns\":").append(histogram.getPercentileNanos(0.99))
+                .append(",\"max_ns\":").append(histogram.getMaxNanos()).append('}');
+    }
+
+    // The text format of Prometheus (version 0.0.4). The durations are in seconds, as Prometheus expects.
+    public String toPrometheus()
+    {
+        StringBuilder sb = new StringBuilder(4096);
+        appendCounter(sb, "connect4_moves_total", "Moves chosen by the AI.", moves.sum());
+        appendCounter(sb, "connect4_searched_moves_total", "Moves chosen by a search.", searchedMoves.sum());
+        appendCounter(sb, "connect4_nodes_total", "Positions visited by the searches.", nodes.sum());
+        appendCounter(sb, "connect4_leaf_evaluations_total", "Positions scored by the heuristic.", leaves.sum());
+        appendCounter(sb, "connect4_terminal_positions_total", "Positions decided without searching further.", terminals.sum());
+        appendCounter(sb, "connect4_cutoffs_total", "Beta cutoffs of the alpha-beta search.", cutoffs.sum());
+        appendCounter(sb, "connect4_table_hits_total", "Positions answered by the transposition table.", tableHits.sum());
+        appendGauge(sb, "connect4_effective_branching_factor", "Average of nodes^(1/depth) over the searched moves.", getBranchingFactor());
+        appendGauge(sb, "connect4_depth_mean", "Average depth reached by the searches.", getMeanDepth());
+        appendGauge(sb, "connect4_depth_max", "Deepest search.", maxDepth.get());
+        appendHistogram(sb, "connect4_move_seconds", "Time taken by each move of the AI.", moveTime);
+        appendHistogram(sb, "connect4_search_seconds", "Time taken by each move which needed a search.", searchTime);
+        appendHistogram(sb, "connect4_calculate_score_seconds", "Time taken by calculateScore (sampled).", scoreTime);
+        appendHistogram(sb, "connect4_is_winning_move_seconds", "Time taken by the win check after each move.", winningMoveTime);
+        appendHistogram(sb, "connect4_is_game_won_seconds", "Time taken by the full scan of a resumed game.", gameWonTime);
+        appendHistogram(sb, "connect4_legacy_minimax_seconds", "Time taken by each search of the original NPC.minimax (not used in games).", legacyMinimaxTime);
+        return sb.toString();
+    }
+
+    private static void appendCounter(StringBuilder sb, String name, String help, long value)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendGauge(StringBuilder sb, String name, String help, double value)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    // The buckets of the histogram are cumulative, up to the last one which is not empty.
+    private static void appendHistogram(StringBuilder sb, String name, String help, LatencyHistogram histogram)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+
+        int last = -1;
+        for (int i = 0; i < 63; i++) if (histogram.getBucketCount(i) != 0) last = i;
+        long cumulative = 0;
+        for (int i = 0; i <= last; i++) {
+            cumulative += histogram.getBucketCount(i);
+            sb.append(name).append("_bucket{le=\"").append((double) (1L << (i + 1)) / 1e9).append("\"} ").append(cumulative).append('\n');
+        }
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+        sb.append(name).append("_sum ").append(histogram.getTotalNanos() / 1e9).append('\n');
+        sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    // Writes the metrics into the file: as JSON if its name ends with ".json", otherwise for Prometheus.
+    // The file is replaced at once, so a reader never sees it half written.
+    public void writeTo(File file) throws IOException
+    {
+        String text = file.getName().endsWith(".json") ? toJson() + "\n" : toPrometheus();
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Serves the metrics over HTTP on the port of the local machine, until the server is stopped.
+    public HttpServer serve(int port) throws IOException
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            boolean json = exchange.getRequestURI().getPath().equals("/metrics.json");
+            byte[] body = (json ? toJson() : toPrometheus()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", json ? "application/json" : "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class contains a pool of NPCs shared by many threads and games. A thread borrows an NPC
+ * for a search ('acquire') and gives it back afterwards ('release'), so there are never more NPCs
+ * than searches running at the same time, and each of them (its transposition table and all its
+ * buffers, which are sized for the biggest board) is reused for any number of games.
+ *
+ * The NPC given back last is lent out first, as its table is the most likely to still hold the
+ * positions of the game. A borrowed NPC keeps the settings of its last borrower (solver threshold,
+ * symmetry pruning), so they are set again for every search.
+ *
+ * @author s2013670
+ */
+
+public final class EnginePool {
+
+    private final int tableSizeMb;
+    private final List<OpeningBook> books;
+    private final EngineMetrics metrics;
+
+    private final ConcurrentLinkedDeque<NPC> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger created = new AtomicInteger();
+
+
+    // Every NPC gets a transposition table of 'tableSizeMb', the opening books, and reports to
+    // 'metrics' (null if the searches are not measured).
+    public EnginePool(int tableSizeMb, List<OpeningBook> books, EngineMetrics metrics)
+    {
+        this.tableSizeMb = tableSizeMb;
+        this.books = List.copyOf(books);
+        this.metrics = metrics;
+    }
+
+    // An NPC nobody else is using (a new one if all of them are busy).
+    public NPC acquire()
+    {
+        NPC npc = idle.pollFirst();
+        if (npc != null) return npc;
+
+        npc = new NPC(tableSizeMb);
+        for (OpeningBook book : books) npc.addOpeningBook(book);
+        npc.setMetrics(metrics);
+        created.incrementAndGet();
+        return npc;
+    }
+
+    // Gives the NPC back to the pool. The caller must not use it any more.
+    public void release(NPC npc)
+    {
+        idle.addFirst(npc);
+    }
+
+    // Number of NPCs created so far (the most searches which have run at the same time).
+    public int getCreated()
+    {
+        return created.get();
+    }
+
+    // Stops the threads of the NPCs which are not in use.
+    public void shutdown()
+    {
+        NPC npc;
+        while ((npc = idle.pollFirst()) != null) npc.shutdown();
+    }
+}
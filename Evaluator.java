@@ -0,0 +1,265 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains the incremental version of the NPC's heuristic (see 'NPC.calculateScore').
+ *
+ * The heuristic looks at every window of X cells in a row (horizontally, vertically and along
+ * both diagonals). Instead of scanning the whole board at every node of the search, the model
+ * keeps the number of pieces of each player in every window, together with the number of
+ * additional moves needed to fill the window, and only updates the windows touched by a move.
+ * The value of each window is kept as well, and they are added up in the same order as the
+ * full scan does, so the scores are exactly the same (to the last bit of the rounding).
+ *
+ * @author s2013670
+ */
+
+public final class Evaluator {
+
+    // The four directions, in the order in which 'NPC.calculateScore' adds them up.
+    private static final int DIRECTIONS = 4;
+
+    // How the additional moves of a window are counted.
+    private static final int FREE_CELLS = 0;    // For every empty cell, the number of empty cells from it down.
+    private static final int MISSING = 1;       // Vertical windows: simply the number of missing pieces.
+    private static final int NONE = 2;          // Diagonal-up windows which the full scan never counts.
+
+    private final int rows;
+    private final int cols;
+    private final int x;
+
+    // The windows of direction 'd' are numbered from 'directionEnd[d - 1]' to 'directionEnd[d] - 1'.
+    private final int[] directionEnd = new int[DIRECTIONS];
+    private final int[] windowCells;    // X cells (row * cols + col) for each window.
+    private final int[] countMode;
+    private final int[][] cellWindows;  // All the windows going through each cell.
+
+    // The state of every window.
+    private final int[] pieces1;        // Pieces of player 1 ('X').
+    private final int[] pieces2;        // Pieces of player 2 ('O').
+    private final int[] freeCells;
+    private final double[] value1;
+    private final double[] value2;
+
+    // Number of windows filled by one player, for each direction.
+    private final int[] full1 = new int[DIRECTIONS];
+    private final int[] full2 = new int[DIRECTIONS];
+
+
+    public Evaluator(int rows, int cols, int x)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        this.x = x;
+
+        List<int[]> windows = new ArrayList<>();
+        List<Integer> modes = new ArrayList<>();
+
+        // Horizontal windows.
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j <= cols - x; j++) {
+                int[] cells = new int[x];
+                for (int k = 0; k < x; k++) cells[k] = i * cols + j + k;
+                windows.add(cells);
+                modes.add(FREE_CELLS);
+            }
+        }
+        directionEnd[0] = windows.size();
+
+        // Vertical windows.
+        for (int i = 0; i < cols; i++) {
+            for (int j = 0; j <= rows - x; j++) {
+                int[] cells = new int[x];
+                for (int k = 0; k < x; k++) cells[k] = (j + k) * cols + i;
+                windows.add(cells);
+                modes.add(MISSING);
+            }
+        }
+        directionEnd[1] = windows.size();
+
+        // Direction: \
+        for (int i = 0; i <= rows - x; i++) {
+            for (int j = 0; j <= cols - x; j++) {
+                int[] cells = new int[x];
+                for (int k = 0; k < x; k++) cells[k] = (i + k) * cols + j + k;
+                windows.add(cells);
+                modes.add(FREE_CELLS);
+            }
+        }
+        directionEnd[2] = windows.size();
+
+        // Direction: /
+        // The full scan ('NPC.scoreDiagonalUp') compares the row with 'j + x' when it counts the free
+        // cells, so for windows starting at row 'i >= j + x' it counts none of them. This is kept,
+        // as the scores have to be exactly the same.
+        for (int i = x - 1; i < rows; i++) {
+            for (int j = 0; j <= cols - x; j++) {
+                int[] cells = new int[x];
+                for (int k = 0; k < x; k++) cells[k] = (i - k) * cols + j + k;
+                windows.add(cells);
+                modes.add(i < j + x ? FREE_CELLS : NONE);
+            }
+        }
+        directionEnd[3] = windows.size();
+
+        int nrWindows = windows.size();
+        windowCells = new int[nrWindows * x];
+        countMode = new int[nrWindows];
+        List<List<Integer>> throughCell = new ArrayList<>();
+        for (int c = 0; c < rows * cols; c++) throughCell.add(new ArrayList<>());
+
+        for (int w = 0; w < nrWindows; w++) {
+            countMode[w] = modes.get(w);
+            for (int k = 0; k < x; k++) {
+                windowCells[w * x + k] = windows.get(w)[k];
+                throughCell.get(windows.get(w)[k]).add(w);
+            }
+        }
+
+        cellWindows = new int[rows * cols][];
+        for (int c = 0; c < rows * cols; c++) {
+            cellWindows[c] = new int[throughCell.get(c).size()];
+            for (int k = 0; k < cellWindows[c].length; k++) cellWindows[c][k] = throughCell.get(c).get(k);
+        }
+
+        pieces1 = new int[nrWindows];
+        pieces2 = new int[nrWindows];
+        freeCells = new int[nrWindows];
+        value1 = new double[nrWindows];
+        value2 = new double[nrWindows];
+    }
+
+
+    // Checking if the evaluator has been built for a board of this shape.
+    public boolean fits(int rows, int cols, int x)
+    {
+        return this.rows == rows && this.cols == cols && this.x == x;
+    }
+
+    // Recounts every window from the board of the model.
+    public void resync(Model model)
+    {
+        for (int d = 0; d < DIRECTIONS; d++) {
+            full1[d] = 0;
+            full2[d] = 0;
+        }
+
+        for (int w = 0; w < countMode.length; w++) {
+            pieces1[w] = 0;
+            pieces2[w] = 0;
+            freeCells[w] = 0;
+            for (int k = 0; k < x; k++) {
+                int cell = windowCells[w * x + k];
+                int row = cell / cols;
+                int col = cell % cols;
+                char piece = model.getBoard(row, col);
+                if (piece == 'X') pieces1[w]++;
+                else if (piece == 'O') pieces2[w]++;
+                else if (countMode[w] == FREE_CELLS) freeCells[w] += rows - model.getColHeight(col + 1) - row;
+            }
+            if (pieces1[w] == x) full1[direction(w)]++;
+            if (pieces2[w] == x) full2[direction(w)]++;
+            updateValues(w);
+        }
+    }
+
+    // ===========================================================================================
+    // ==================  Updates made by the model when a piece is dropped  ====================
+    // ==================  into (or removed from) 'column', landing in 'row'.  ====================
+    // ===========================================================================================
+
+    public void pieceAdded(int column, int row, int player)
+    {
+        int col = column - 1;
+
+        // Every empty cell on and above the new piece now has one empty cell less below it.
+        for (int g = 0; g <= row; g++) {
+            for (int w : cellWindows[g * cols + col]) {
+                boolean changed = false;
+                if (countMode[w] == FREE_CELLS) {
+                    freeCells[w]--;
+                    changed = true;
+                }
+                if (g == row) {
+                    if (player == 1 && ++pieces1[w] == x) full1[direction(w)]++;
+                    else if (player == 2 && ++pieces2[w] == x) full2[direction(w)]++;
+                    changed = true;
+                }
+                if (changed) updateValues(w);
+            }
+        }
+    }
+
+    public void pieceRemoved(int column, int row, int player)
+    {
+        int col = column - 1;
+
+        for (int g = 0; g <= row; g++) {
+            for (int w : cellWindows[g * cols + col]) {
+                boolean changed = false;
+                if (countMode[w] == FREE_CELLS) {
+                    freeCells[w]++;
+                    changed = true;
+                }
+                if (g == row) {
+                    if (player == 1 && pieces1[w]-- == x) full1[direction(w)]--;
+                    else if (player == 2 && pieces2[w]-- == x) full2[direction(w)]--;
+                    changed = true;
+                }
+                if (changed) updateValues(w);
+            }
+        }
+    }
+
+    // ===========================================================================================
+    // =====================================  The score  =========================================
+    // ===========================================================================================
+
+    // The same score as the full scan: positive is good for the AI ('O'), INFINITY is a win.
+    public int score()
+    {
+        int score = 0;
+        int start = 0;
+        for (int d = 0; d < DIRECTIONS; d++) {
+            if (full2[d] > 0) return NPC.INFINITY;
+            else if (full1[d] > 0) return -NPC.INFINITY;
+
+            // Windows which are not worth anything hold 0, which does not change the sums.
+            double sum2 = 0;
+            double sum1 = 0;
+            for (int w = start; w < directionEnd[d]; w++) {
+                sum2 += value2[w];
+                sum1 += value1[w];
+            }
+            score += ((int) Math.round(sum2) - (int) Math.round(sum1));
+            start = directionEnd[d];
+        }
+        return score;
+    }
+
+    private void updateValues(int w)
+    {
+        value1[w] = windowValue(w, pieces1[w], pieces2[w]);
+        value2[w] = windowValue(w, pieces2[w], pieces1[w]);
+    }
+
+    // The value of a window with at least 2 (but not X) pieces of one player and none of the other.
+    private double windowValue(int w, int own, int other)
+    {
+        if (other != 0 || own < 2 || own == x) return 0;
+
+        int additionalMoves;
+        if (countMode[w] == MISSING) additionalMoves = x - own;
+        else if (countMode[w] == FREE_CELLS) additionalMoves = freeCells[w];
+        else additionalMoves = 0;
+
+        return (100 * (double) own / (double) x) * (2 / (double) additionalMoves);
+    }
+
+    private int direction(int w)
+    {
+        int d = 0;
+        while (w >= directionEnd[d]) d++;
+        return d;
+    }
+}
@@ -1,13 +1,26 @@
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 
 /**
  * This class contains the methods to save the game after each move and to load the last game to continue it.
  * When the game is finished, the file with its copy is deleted.
  *
+ * Games are saved in a compact binary format (see GameSnapshot). Each save is written to a temporary
+ * file first, which is then renamed over the old save, so the save on disk is always complete even
+ * if the game is stopped in the middle of writing it. Games saved as text by earlier versions of
+ * the game (in LastGame.txt) can still be loaded.
+ *
+ * In journal mode, only the moves are added to a journal instead (see MoveJournal), and a game
+ * kept in a store of many games is saved under its ID (see GameStore).
+ *
  * @author s2013670
  */
 public class FileHandling {
@@ -15,82 +28,172 @@ public class FileHandling {
     private final Model model;
 
     public FileHandling(Model model)
+    {
+        this(model, new File("LastGame.dat"), new File("LastGame.txt"));
+    }
+
+    // Saving the game into another file (e.g. a temporary one, for the benchmarks).
+    public FileHandling(Model model, File file)
+    {
+        this(model, file, null);
+    }
+
+    // Journal mode: saving every move into the journal rather than the whole board into a file.
+    public FileHandling(Model model, MoveJournal journal)
+    {
+        this(model, journal.getFile(), null, journal);
+    }
+
+    // Saving the game into a store of many games, under its ID.
+    public FileHandling(Model model, GameStore store, long gameId)
     {
         this.model = model;
+        this.file = null;
+        this.temp = null;
+        this.legacyFile = null;
+        this.journal = null;
+        this.store = store;
+        this.gameId = gameId;
     }
 
-    private final File file = new File("LastGame.txt");
+    private FileHandling(Model model, File file, File legacyFile)
+    {
+        this(model, file, legacyFile, null);
+    }
 
-    public void saveGame() throws FileNotFoundException
+    private FileHandling(Model model, File file, File legacyFile, MoveJournal journal)
     {
-        PrintWriter writer = new PrintWriter(file);
-        writer.println(model.getNrRows());
-        writer.println(model.getNrCols());
-        writer.println(model.getPiecesInRow());
-        writer.println(model.getPlayerTurn());
-        writer.println(model.getDifficulty());
-
-        for (int i = 0; i < model.getNrRows(); i++) {
-            for (int j = 0; j < model.getNrCols(); j++) {
-                char c = model.getBoard(i, j);
-                writer.print(c);
-            }
-            writer.println();
-        }
-        writer.close();
+        this.model = model;
+        this.file = file;
+        this.temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        this.legacyFile = legacyFile;
+        this.journal = journal;
+        this.store = null;
+        this.gameId = 0;
     }
 
-    public boolean loadGame() throws FileNotFoundException
+    private final File file;
+    private final File temp;
+
+    // A game saved in the old text format, loaded if there is no binary save (null if there is none to look for).
+    private final File legacyFile;
+
+    // The journal of the game in journal mode (null otherwise).
+    private final MoveJournal journal;
+
+    // The store of many games and the ID of this one, when the game is kept in a store (null otherwise).
+    private final GameStore store;
+    private final long gameId;
+
+    // Reused by every save and by loading (unless the file is bigger than any snapshot).
+    private final ByteBuffer buffer = ByteBuffer.allocate(GameSnapshot.MAX_BYTES);
+
+    public void saveGame() throws IOException
     {
-        if (!file.exists()) {
-            System.out.println("You have finished your last game.\n");
-            return false;
+        if (store != null) {
+            store.save(gameId, model);
+            return;
+        }
+        if (journal != null) {
+            journal.record(model);
+            return;
         }
-        Scanner scanner = new Scanner(file);
-        scanner.useDelimiter("");
-
-        String temp = scanner.nextLine();
-        int rows = Integer.parseInt(temp.trim());
-        temp = scanner.nextLine();
-        int cols = Integer.parseInt(temp.trim());
-        temp = scanner.nextLine();
-        int x = Integer.parseInt(temp.trim());
-        temp = scanner.nextLine();
-        int turn = Integer.parseInt(temp.trim());
-        temp = scanner.nextLine();
-        int difficulty = Integer.parseInt(temp.trim());
 
-        char[][] board = new char[rows][cols];
+        buffer.clear();
+        GameSnapshot.write(model, buffer);
+        buffer.flip();
 
-        int rowIndex = 0;
-        int colIndex = 0;
-        while (scanner.hasNext()) {
-            char c = scanner.next().charAt(0);
-            if (c == '\n') {
-                rowIndex++;
-                colIndex = 0;
-                continue;
-            }
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            // On disk before the rename, or a crash could leave an empty file under the real name.
+            channel.force(true);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-            if (rowIndex < rows && colIndex < cols) board[rowIndex][colIndex] = c;
-            colIndex++;
+    // Loads the saved game into the model. Returns false if there is none (the last game was finished),
+    // and the view tells the player so.
+    public boolean loadGame() throws IOException
+    {
+        if (store != null) return store.load(gameId, model);
+
+        File source = file;
+        if (!source.exists() && legacyFile != null) source = legacyFile;
+        if (!source.exists()) return false;
+        if (journal != null) return journal.recover(model);
+
+        ByteBuffer data = readFile(source);
+        if (GameSnapshot.isSnapshot(data)) GameSnapshot.read(data, model);
+        else loadText(new String(data.array(), 0, data.limit(), StandardCharsets.ISO_8859_1));
+        return true;
+    }
+
+    // The whole file in one read.
+    private ByteBuffer readFile(File source) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Saved game is too big: " + source);
+
+            ByteBuffer data = (size <= buffer.capacity()) ? buffer : ByteBuffer.allocate((int) size);
+            data.clear();
+            data.limit((int) size);
+            // A file this small is normally read at once; this only loops if the read stops short.
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) throw new IOException("Saved game changed while it was read: " + source);
+            }
+            data.flip();
+            return data;
         }
+    }
 
-        model.setDimensions(rows, cols);
-        model.setX(x);
-        model.setTurn(turn);
-        if (difficulty == 0) model.setNumberOfPlayers(2);
-        else {
-            model.setNumberOfPlayers(1);
-            model.setDifficulty(difficulty);
+    // The text format: rows, columns, X, the player to move and the difficulty on a line each,
+    // followed by the rows of the board from the top ('X', 'O' or a space for each cell).
+    private void loadText(String text)
+    {
+        String[] lines = text.split("\r?\n");
+        int rows = Integer.parseInt(lines[0].trim());
+        int cols = Integer.parseInt(lines[1].trim());
+        int x = Integer.parseInt(lines[2].trim());
+        int turn = Integer.parseInt(lines[3].trim());
+        int difficulty = Integer.parseInt(lines[4].trim());
+
+        char[][] board = new char[rows][cols];
+        for (int i = 0; i < rows && 5 + i < lines.length; i++) {
+            String line = lines[5 + i];
+            for (int j = 0; j < cols && j < line.length(); j++) board[i][j] = line.charAt(j);
         }
+
+        GameSnapshot.setUp(model, rows, cols, x, turn, difficulty);
         model.setBoard(board);
-        scanner.close();
-        return true;
     }
 
-    public void deleteFile()
+    // The model which is saved and loaded.
+    Model getModel()
+    {
+        return model;
+    }
+
+    public void deleteFile() throws IOException
     {
+        if (store != null) {
+            store.finish(gameId);
+            return;
+        }
+        if (journal != null) journal.delete();
         file.delete();
+        if (legacyFile != null) legacyFile.delete();
+    }
+
+    // Lets go of the files of the game once it is no longer saved (the save itself stays on the disk).
+    public void close() throws IOException
+    {
+        if (journal != null) journal.close();
     }
 }
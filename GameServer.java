@@ -0,0 +1,200 @@
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class contains a server which hosts many games at once, one for every connection.
+ *
+ * The protocol is the game in the terminal, line by line: the server sends the same messages and
+ * prompts as TextView (a prompt ends without a new line), and the player answers every prompt
+ * with one line. So any line-based client can play, e.g.
+ *   nc localhost 4444
+ * The server only listens on the local machine.
+ *
+ * Every connection is served by a thread of its own, which mostly waits for the player. On Java 21
+ * and later these are virtual threads, so thousands of players cost little more than their games;
+ * on earlier versions they are ordinary threads. The moves of the AI are searched by a fixed number
+ * of threads (see SearchPool), so however many games ask for a move, the searches never take the
+ * processors away from the threads talking to the players.
+ *
+ * Every game is saved after each move into a store of games under its ID (see GameStore), off the
+ * thread of the session (see AsyncFileHandling), so that no move waits for the disk. The player is
+ * told the ID when the game starts, and can resume the game with it from a new connection.
+ *
+ * With --metrics-port, the metrics of the AI (see EngineMetrics) are served on that port as well.
+ *
+ *   java GameServer [--port 4444] [--threads <processors>] [--table-mb 16] [--store games] [--metrics-port <port>]
+ *
+ * @author s2013670
+ */
+
+public final class GameServer {
+
+    public static final int DEFAULT_PORT = 4444;
+    public static final String DEFAULT_STORE = "games";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final SearchPool searchPool;
+    private final GameStore store;
+    private final EngineMetrics metrics;
+
+    // The IDs of the games being played, so that a game is not played in two sessions at once.
+    private final Set<Long> playing = ConcurrentHashMap.newKeySet();
+
+
+    // Listens on the port of the local machine (0 picks a free one, see getPort). The metrics are those
+    // the search pool reports to (null if there are none).
+    public GameServer(int port, SearchPool searchPool, GameStore store, EngineMetrics metrics) throws IOException
+    {
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.searchPool = searchPool;
+        this.store = store;
+        this.metrics = metrics;
+    }
+
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    // A virtual thread for every session where they are available (Java 21 and later), otherwise
+    // an ordinary thread. They are looked up at run time, so the game still compiles on older versions.
+    private static ExecutorService newSessionExecutor()
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Accepts connections until the server is closed.
+    public void serve() throws IOException
+    {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (SocketException e) {
+                if (serverSocket.isClosed()) return;
+                throw e;
+            }
+            sessions.execute(() -> playSession(socket));
+        }
+    }
+
+    // Stops accepting connections and ends the sessions (their games stay in the store).
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        sessions.shutdownNow();
+    }
+
+    private void playSession(Socket socket)
+    {
+        long gameId = 0;
+        try (socket) {
+            InputSource in = new StreamInput(socket.getInputStream());
+            PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, StandardCharsets.UTF_8);
+            TextView view = new TextView(in, out);
+
+            gameId = askForGameId(view, out);
+            view.displayGameId(gameId);
+
+            Model model = new Model();
+            AsyncFileHandling file = new AsyncFileHandling(model, store, gameId, AsyncFileHandling.DEFAULT_MAX_DELAY_MILLIS);
+            try {
+                WinDetector detector = new WinDetector(model);
+                detector.setMetrics(metrics);
+                Controller controller = new Controller(model, view, detector, searchPool, file);
+                controller.startSession(true);
+                out.flush();
+            }
+            finally {
+                file.close();
+            }
+        }
+        catch (EOFException | SocketException e) {
+            // The player has disconnected (the game stays in the store, as it was after the last move).
+        }
+        catch (IOException e) {
+            if (!serverSocket.isClosed()) System.err.println("Game " + gameId + ": " + e.getMessage());
+        }
+        finally {
+            if (gameId != 0) playing.remove(gameId);
+        }
+    }
+
+    // The ID of the player's game (a new one for 0), which is not being played in another session.
+    private long askForGameId(TextView view, PrintStream out) throws IOException
+    {
+        while (true) {
+            long gameId = view.askForGameId();
+            if (gameId == 0) {
+                do gameId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+                while (store.contains(gameId) || !playing.add(gameId));
+                return gameId;
+            }
+            if (gameId < 0) continue;
+            if (playing.add(gameId)) return gameId;
+            out.println("This game is being played in another session.");
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int tableSizeMb = NPC.DEFAULT_TABLE_MB;
+        String storeDirectory = DEFAULT_STORE;
+        int metricsPort = -1;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--table-mb": tableSizeMb = Integer.parseInt(args[i + 1]); break;
+                case "--store": storeDirectory = args[i + 1]; break;
+                case "--metrics-port": metricsPort = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0) throw new IllegalArgumentException("Missing value of " + args[args.length - 1]);
+
+        GameStore store = new GameStore(new File(storeDirectory));
+        EngineMetrics metrics = new EngineMetrics();
+        SearchPool searchPool = new SearchPool(threads, tableSizeMb, OpeningBook.loadAll(new File(".")), metrics);
+        GameServer server = new GameServer(port, searchPool, store, metrics);
+        if (metricsPort >= 0) metrics.serve(metricsPort);
+
+        // Everything saved is forced onto the disk when the server is stopped.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                AsyncFileHandling.flushAll();
+                store.sync();
+            }
+            catch (IOException e) {
+                System.err.println("The games could not be saved: " + e.getMessage());
+            }
+        }));
+
+        System.out.println("Serving games on port " + server.getPort() + " (" + threads + " search threads)");
+        server.serve();
+    }
+}
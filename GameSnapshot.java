@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class contains the binary format of a saved game: everything the Model needs to carry on
+ * with the game, in at most a few dozen bytes.
+ *
+ *   magic number      4 bytes  ("C4SV")
+ *   format version    1 byte
+ *   rows, columns, X  1 byte each
+ *   player to move    1 byte   (1 or 2)
+ *   difficulty        1 byte   (the depth of the AI, 0 for a game of two players)
+ *   pieces            the bitboards of player 1 and then player 2 (see Model.getBitboard),
+ *                     8 bytes for each word the board takes up
+ *
+ * @author s2013670
+ */
+
+public final class GameSnapshot {
+
+    // "C4SV"
+    public static final int MAGIC = 0x43345356;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 4 + 6;
+
+    // The size of the snapshot of the largest board.
+    public static final int MAX_BYTES = HEADER_BYTES + 2 * 8 * Model.BOARD_WORDS;
+
+    private GameSnapshot()
+    {
+    }
+
+    // Number of 64-bit words of each bitboard used by a board of this size.
+    private static int words(int rows, int cols)
+    {
+        return (cols * (rows + 1) + 63) / 64;
+    }
+
+    // Number of bytes taken by the snapshot of the model.
+    public static int size(Model model)
+    {
+        return HEADER_BYTES + 2 * 8 * words(model.getNrRows(), model.getNrCols());
+    }
+
+    // Writes the snapshot of the model at the position of the buffer.
+    public static void write(Model model, ByteBuffer out)
+    {
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) model.getNrRows());
+        out.put((byte) model.getNrCols());
+        out.put((byte) model.getPiecesInRow());
+        out.put((byte) model.getPlayerTurn());
+        out.put((byte) (model.getNrPlayers() == 2 ? 0 : model.getDifficulty()));
+
+        int words = words(model.getNrRows(), model.getNrCols());
+        for (int player = 1; player <= 2; player++) {
+            for (int w = 0; w < words; w++) out.putLong(model.getBitboard(player, w));
+        }
+    }
+
+    // Checking if the buffer starts with a snapshot (rather than with a game saved as text).
+    public static boolean isSnapshot(ByteBuffer in)
+    {
+        return in.remaining() >= 4 && in.getInt(in.position()) == MAGIC;
+    }
+
+    // Reads the snapshot at the position of the buffer into the model.
+    public static void read(ByteBuffer in, Model model) throws IOException
+    {
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) throw new IOException("Not a saved game");
+        int version = in.get();
+        if (version != VERSION) throw new IOException("Unsupported version of the saved game: " + version);
+
+        int rows = in.get();
+        int cols = in.get();
+        int x = in.get();
+        int turn = in.get();
+        int difficulty = in.get();
+        // X is checked like Model.isXValid, against the size of the saved board; a difficulty of 0 is a game of two players.
+        if (!model.rowsValid(rows) || !model.colsValid(cols) || x < Model.MIN_COLS || x > Math.max(rows, cols)
+                || (turn != 1 && turn != 2) || difficulty < 0 || difficulty > NPC.EXPERT_DEPTH) {
+            throw new IOException("Corrupt saved game");
+        }
+
+        int words = words(rows, cols);
+        if (in.remaining() < 2 * 8 * words) throw new IOException("Truncated saved game");
+        long[] player1 = new long[words];
+        long[] player2 = new long[words];
+        for (int w = 0; w < words; w++) player1[w] = in.getLong();
+        for (int w = 0; w < words; w++) player2[w] = in.getLong();
+
+        setUp(model, rows, cols, x, turn, difficulty);
+        model.setPieces(player1, player2);
+    }
+
+    // Sets up an empty board for the saved game (the pieces are placed afterwards).
+    static void setUp(Model model, int rows, int cols, int x, int turn, int difficulty)
+    {
+        model.setDimensions(rows, cols);
+        model.setX(x);
+        model.setTurn(turn);
+        if (difficulty == 0) model.setNumberOfPlayers(2);
+        else {
+            model.setNumberOfPlayers(1);
+            model.setDifficulty(difficulty);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class contains a store of many saved games at once, each under its own ID, so that one
+ * program can host any number of games (see FileHandling for saving a game into the store).
+ *
+ * The games are spread over a fixed number of shard files in one directory (by their ID). Each
+ * shard is an append-only log: saving a game adds a record with its latest board (a GameSnapshot)
+ * to the end of its shard, and finishing a game adds a record which removes it. An index in
+ * memory knows where the latest record of every game is, so a game is loaded with a single read.
+ * The index is rebuilt by reading the shards when the store is opened (a record cut short by a
+ * crash at the end of a shard is ignored). Once most of a shard is taken up by records which are
+ * no longer needed, the shard is rewritten with the latest records only.
+ *
+ * Games in different shards are saved and loaded in parallel; those in the same shard take turns.
+ *
+ *   shard header   "C4GS" and the format version (5 bytes)
+ *   record         game ID (8 bytes), time of the save in milliseconds (8 bytes), type (1 byte),
+ *                  length of the snapshot (1 byte) and the snapshot (none in a removal)
+ *
+ * @author s2013670
+ */
+
+public final class GameStore {
+
+    // "C4GS"
+    private static final int MAGIC = 0x43344753;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 1;
+    private static final int RECORD_HEADER_BYTES = 8 + 8 + 1 + 1;
+
+    private static final int SAVE = 1;
+    private static final int REMOVE = 2;
+
+    public static final int DEFAULT_SHARDS = 16;
+
+    // A shard is rewritten when the records which are no longer needed take up more than this
+    // and more than the records which are.
+    private static final long COMPACTION_MIN_BYTES = 1 << 20;
+
+    // Where the latest save of a game is.
+    private static final class Location {
+
+        final Shard shard;
+        final long offset;
+        final int length;
+        final long savedAt;
+
+        Location(Shard shard, long offset, int length, long savedAt)
+        {
+            this.shard = shard;
+            this.offset = offset;
+            this.length = length;
+            this.savedAt = savedAt;
+        }
+    }
+
+    // One shard file. Everything in it is done while holding the shard's lock.
+    private static final class Shard {
+
+        final File file;
+        FileChannel channel;
+        long end;
+        long liveBytes;
+        long deadBytes;
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + GameSnapshot.MAX_BYTES);
+
+        Shard(File file)
+        {
+            this.file = file;
+        }
+    }
+
+    private final File directory;
+    private final Shard[] shards;
+    private final Map<Long, Location> index = new ConcurrentHashMap<>();
+
+
+    public GameStore(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SHARDS);
+    }
+
+    // Opens the store in the directory (creating it if needed) and reads the index of its games.
+    // The number of shards has to stay the same for as long as the store is used.
+    public GameStore(File directory, int nrShards) throws IOException
+    {
+        this.directory = directory;
+        Files.createDirectories(directory.toPath());
+
+        shards = new Shard[nrShards];
+        for (int i = 0; i < nrShards; i++) {
+            shards[i] = new Shard(new File(directory, String.format("games-%02d.dat", i)));
+            open(shards[i]);
+        }
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    // The shard of a game (the bits of the ID are mixed first, so that consecutive IDs are spread out).
+    private Shard shardOf(long gameId)
+    {
+        long mixed = gameId * 0x9E3779B97F4A7C15L;
+        return shards[(int) ((mixed >>> 32) % shards.length)];
+    }
+
+    // Saves the board of the game, replacing its last save.
+    public void save(long gameId, Model model) throws IOException
+    {
+        Shard shard = shardOf(gameId);
+        synchronized (shard) {
+            ByteBuffer record = shard.buffer;
+            record.clear();
+            record.putLong(gameId);
+            long now = System.currentTimeMillis();
+            record.putLong(now);
+            record.put((byte) SAVE);
+            record.put((byte) GameSnapshot.size(model));
+            GameSnapshot.write(model, record);
+            record.flip();
+
+            long offset = shard.end;
+            int length = record.remaining();
+            write(shard, record);
+
+            Location old = index.put(gameId, new Location(shard, offset, length, now));
+            shard.liveBytes += length;
+            if (old != null) forget(old);
+            compactIfNeeded(shard);
+        }
+    }
+
+    // Loads the latest save of the game into the model. Returns false if there is no such game.
+    public boolean load(long gameId, Model model) throws IOException
+    {
+        Shard shard = shardOf(gameId);
+        synchronized (shard) {
+            Location location = index.get(gameId);
+            if (location == null) return false;
+
+            ByteBuffer record = shard.buffer;
+            record.clear();
+            record.limit(location.length);
+            readFully(shard, record, location.offset);
+            record.flip();
+            record.position(RECORD_HEADER_BYTES);
+            GameSnapshot.read(record, model);
+            return true;
+        }
+    }
+
+    public boolean contains(long gameId)
+    {
+        return index.containsKey(gameId);
+    }
+
+    // The IDs of all the games in the store.
+    public List<Long> getGameIds()
+    {
+        return new ArrayList<>(index.keySet());
+    }
+
+    public int size()
+    {
+        return index.size();
+    }
+
+    // When the game was saved for the last time (in milliseconds, like System.currentTimeMillis), or -1.
+    public long getLastSaved(long gameId)
+    {
+        Location location = index.get(gameId);
+        return location == null ? -1 : location.savedAt;
+    }
+
+    // Removes a game which is over (or abandoned) from the store.
+    public void finish(long gameId) throws IOException
+    {
+        remove(gameId, Long.MAX_VALUE);
+    }
+
+    // Removes the games which have not been saved for 'maxIdleMillis' milliseconds (games which have
+    // been abandoned without being finished). Returns the number of games removed.
+    public int expire(long maxIdleMillis) throws IOException
+    {
+        long limit = System.currentTimeMillis() - maxIdleMillis;
+        int removed = 0;
+        for (Map.Entry<Long, Location> entry : index.entrySet()) {
+            if (entry.getValue().savedAt < limit && remove(entry.getKey(), limit)) removed++;
+        }
+        return removed;
+    }
+
+    // Removes the game if it was last saved before 'limit' (checked again while holding the lock,
+    // since the game may be saved at any moment). Returns false if it was not removed.
+    private boolean remove(long gameId, long limit) throws IOException
+    {
+        Shard shard = shardOf(gameId);
+        synchronized (shard) {
+            Location old = index.get(gameId);
+            if (old == null || old.savedAt >= limit) return false;
+            index.remove(gameId);
+
+            ByteBuffer record = shard.buffer;
+            record.clear();
+            record.putLong(gameId);
+            record.putLong(System.currentTimeMillis());
+            record.put((byte) REMOVE);
+            record.put((byte) 0);
+            record.flip();
+            int length = record.remaining();
+            write(shard, record);
+
+            // The removal itself is only needed until the shard is rewritten.
+            shard.deadBytes += length;
+            forget(old);
+            compactIfNeeded(shard);
+            return true;
+        }
+    }
+
+    // Forces everything saved so far onto the disk.
+    public void sync() throws IOException
+    {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.channel.force(false);
+            }
+        }
+    }
+
+    public void close() throws IOException
+    {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.channel.close();
+            }
+        }
+    }
+
+    // The record at 'old' has been replaced or removed.
+    private static void forget(Location old)
+    {
+        old.shard.liveBytes -= old.length;
+        old.shard.deadBytes += old.length;
+    }
+
+    // Reads the record at the offset (the buffer is filled up to its limit).
+    private static void readFully(Shard shard, ByteBuffer record, long offset) throws IOException
+    {
+        while (record.hasRemaining()) {
+            if (shard.channel.read(record, offset + record.position()) < 0) throw new IOException("A save is cut short: " + shard.file);
+        }
+    }
+
+    private static void write(Shard shard, ByteBuffer record) throws IOException
+    {
+        long position = shard.end;
+        while (record.hasRemaining()) position += shard.channel.write(record, position);
+        shard.end = position;
+    }
+
+    // ===========================================================================================
+    // ==============================  Opening and rewriting shards  =============================
+    // ===========================================================================================
+
+    // Opens the shard (creating it if needed) and adds the latest record of each of its games to the index.
+    private void open(Shard shard) throws IOException
+    {
+        if (!shard.file.exists()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).put((byte) VERSION).flip();
+            writeFile(shard.file, header);
+        }
+
+        shard.channel = FileChannel.open(shard.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = shard.channel.size();
+        if (size > Integer.MAX_VALUE) throw new IOException("The shard is too big: " + shard.file);
+
+        // The shard is read once from start to end, into the heap (a mapping would also stop it from
+        // being truncated below on some systems).
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        while (data.hasRemaining()) {
+            if (shard.channel.read(data, data.position()) < 0) throw new IOException("The shard changed while it was read: " + shard.file);
+        }
+        data.flip();
+        if (size < HEADER_BYTES || data.getInt(0) != MAGIC) throw new IOException("Not a game store: " + shard.file);
+        if (data.get(4) != VERSION) throw new IOException("Unsupported version of the game store: " + data.get(4));
+
+        int position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= size) {
+            long gameId = data.getLong(position);
+            long savedAt = data.getLong(position + 8);
+            int type = data.get(position + 16);
+            int length = RECORD_HEADER_BYTES + (data.get(position + 17) & 0xFF);
+            if (position + length > size || (type != SAVE && type != REMOVE)) break;
+
+            Location old;
+            if (type == SAVE) {
+                old = index.put(gameId, new Location(shard, position, length, savedAt));
+                shard.liveBytes += length;
+            }
+            else {
+                old = index.remove(gameId);
+                shard.deadBytes += length;
+            }
+            if (old != null) forget(old);
+            position += length;
+        }
+
+        // Anything after the last complete record is cut off (and overwritten by the next one).
+        shard.end = position;
+        shard.channel.truncate(position);
+    }
+
+    private void compactIfNeeded(Shard shard) throws IOException
+    {
+        if (shard.deadBytes > COMPACTION_MIN_BYTES && shard.deadBytes > shard.liveBytes) compact(shard);
+    }
+
+    // Rewrites the shard with the latest save of each of its games only. The new shard is written
+    // next to the old one and renamed over it, so the old one is still complete if this is interrupted.
+    private void compact(Shard shard) throws IOException
+    {
+        List<Long> gameIds = new ArrayList<>();
+        for (Map.Entry<Long, Location> entry : index.entrySet()) {
+            if (entry.getValue().shard == shard) gameIds.add(entry.getKey());
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) (HEADER_BYTES + shard.liveBytes));
+        data.putInt(MAGIC).put((byte) VERSION);
+        long[] offsets = new long[gameIds.size()];
+        for (int i = 0; i < gameIds.size(); i++) {
+            Location location = index.get(gameIds.get(i));
+            offsets[i] = data.position();
+            ByteBuffer record = data.slice();
+            record.limit(location.length);
+            readFully(shard, record, location.offset);
+            data.position(data.position() + location.length);
+        }
+        data.flip();
+
+        File temp = new File(directory, shard.file.getName() + ".tmp");
+        writeFile(temp, data);
+        shard.channel.close();
+        try {
+            Files.move(temp.toPath(), shard.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), shard.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        shard.channel = FileChannel.open(shard.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        for (int i = 0; i < gameIds.size(); i++) {
+            Location old = index.get(gameIds.get(i));
+            index.put(gameIds.get(i), new Location(shard, offsets[i], old.length, old.savedAt));
+        }
+        shard.end = data.limit();
+        shard.deadBytes = 0;
+    }
+
+    private static void writeFile(File file, ByteBuffer data) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) channel.write(data);
+            channel.force(false);
+        }
+    }
+}
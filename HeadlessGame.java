@@ -0,0 +1,78 @@
+/**
+ * This class contains a game of Connect X without any view or user input.
+ * It is used to let AIs play against each other (see Tournament), but any other
+ * program can drive it as well: moves are simply passed to 'play' one by one.
+ *
+ * @author s2013670
+ */
+public final class HeadlessGame
+{
+	private final Model model;
+	private final WinDetector detector;
+
+	private boolean over;
+	private int winner;		// 0 while nobody has won (or if the game is a draw), otherwise 1 or 2.
+	private int nrMoves;
+
+	public HeadlessGame(int rows, int cols, int x)
+	{
+		model = new Model();
+		model.setDimensions(rows, cols);
+		model.setX(x);
+		model.setNumberOfPlayers(2);
+		model.setTurn(1);
+		detector = new WinDetector(model);
+	}
+
+	// Drops a piece of the player to move into the column. Returns false (and does nothing)
+	// if the game is over or the move is not valid. Conceding (0) is done with 'concede'.
+	public boolean play(int column)
+	{
+		if (over || column == 0 || !model.isMoveValid(column)) return false;
+
+		model.makeMove(column);
+		nrMoves++;
+		if (detector.isWinningMove(column)) {
+			over = true;
+			winner = model.getPlayerTurn();
+		}
+		else if (model.boardFull()) over = true;
+
+		model.switchTurn();
+		return true;
+	}
+
+	// The player to move gives up, so the other one wins.
+	public void concede()
+	{
+		if (over) return;
+		over = true;
+		winner = (model.getPlayerTurn() == 1) ? 2 : 1;
+	}
+
+	public boolean isOver()
+	{
+		return over;
+	}
+
+	public int getWinner()
+	{
+		return winner;
+	}
+
+	public int getNrMoves()
+	{
+		return nrMoves;
+	}
+
+	public int getPlayerTurn()
+	{
+		return model.getPlayerTurn();
+	}
+
+	// The board of the game. AIs may search it, but have to leave it as they found it.
+	public Model getModel()
+	{
+		return model;
+	}
+}
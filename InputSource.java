@@ -0,0 +1,16 @@
+import java.io.IOException;
+
+/**
+ * This interface is where the game gets the player's input from (see TextView), one line at a time:
+ *   StreamInput    - the terminal, or any other stream such as a connection to the game server,
+ *   ScriptedInput  - lines prepared beforehand, e.g. a game recorded with RecordingInput and replayed.
+ * TextView checks the lines itself and asks again if they are not valid, so a source only has to
+ * hand them over.
+ *
+ * @author s2013670
+ */
+public interface InputSource
+{
+	// Returns the next line (without the line break), waiting for it if needed, or null if the input has ended.
+	String readLine() throws IOException;
+}
@@ -0,0 +1,98 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class contains a histogram of durations (e.g. the time the AI takes for a move).
+ * Bucket 'i' counts the durations from 2^i to 2^(i+1) - 1 nanoseconds, so the whole range
+ * from a nanosecond to centuries fits into 64 counters. Recording is thread-safe and lock-free.
+ *
+ * @author s2013670
+ */
+
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+
+    public void record(long nanos)
+    {
+        if (nanos < 1) nanos = 1;
+        counts.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+        total.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount()
+    {
+        return total.get();
+    }
+
+    public long getTotalNanos()
+    {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos()
+    {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos()
+    {
+        long count = total.get();
+        return (count == 0) ? 0 : totalNanos.get() / count;
+    }
+
+    // The upper end of the bucket holding the given fraction (0 to 1) of all the durations.
+    public long getPercentileNanos(double fraction)
+    {
+        long count = total.get();
+        if (count == 0) return 0;
+
+        long needed = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= needed) return Math.min((i == 63) ? Long.MAX_VALUE : (1L << (i + 1)) - 1, maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    // Number of durations in bucket 'i' (from 2^i to 2^(i+1) - 1 nanoseconds).
+    public long getBucketCount(int i)
+    {
+        return counts.get(i);
+    }
+
+    // Prints the summary and one bar for each bucket that is not empty.
+    public void print(PrintStream out, String indent)
+    {
+        out.println(indent + "count " + getCount() + ", mean " + format(getMeanNanos())
+                + ", p50 " + format(getPercentileNanos(0.5)) + ", p90 " + format(getPercentileNanos(0.9))
+                + ", p99 " + format(getPercentileNanos(0.99)) + ", max " + format(getMaxNanos()));
+
+        long count = getCount();
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n == 0) continue;
+            int bar = (int) Math.max(1, 50 * n / count);
+            out.printf("%s%10s - %-10s %8d %s%n", indent, format(1L << i), format((1L << (i + 1)) - 1), n, "#".repeat(bar));
+        }
+    }
+
+    // A duration in the most readable unit.
+    public static String format(long nanos)
+    {
+        if (nanos < 1000) return nanos + " ns";
+        else if (nanos < 1000000) return String.format("%.1f us", nanos / 1e3);
+        else if (nanos < 1000000000) return String.format("%.1f ms", nanos / 1e6);
+        else return String.format("%.2f s", nanos / 1e9);
+    }
+}
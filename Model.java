@@ -1,3 +1,7 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * This class contains the model of the game board.
  * It also has representation of all actions that can be performed on the board.
@@ -22,6 +26,26 @@ public final class Model
 	public static final int MAX_ROWS = 10;
 	public static final int MAX_COLS = 20;
 
+	// Each column takes 'nrRows + 1' bits of a bitboard: its cells from the bottom up, followed by
+	// an always-empty sentinel bit which stops line scans from running over into the next column.
+	// Even the largest board (20 columns of 10 + 1 bits) fits into this many 64-bit words.
+	public static final int BOARD_WORDS = (MAX_COLS * (MAX_ROWS + 1) + 63) / 64;
+
+	// Zobrist keys: one random number for each player and each bit of the bitboards, and one more
+	// for the player to move. The hash of a position is the XOR of the keys of everything on it.
+	// A fixed seed gives the same hashes in every run (so they can be stored in files).
+	private static final long[][] ZOBRIST = new long[2][MAX_COLS * (MAX_ROWS + 1)];
+	private static final long SIDE_KEY;
+
+	static
+	{
+		SplittableRandom random = new SplittableRandom(0x5EED_C0DE_4L);
+		for (int p = 0; p < 2; p++) {
+			for (int i = 0; i < ZOBRIST[p].length; i++) ZOBRIST[p][i] = random.nextLong();
+		}
+		SIDE_KEY = random.nextLong();
+	}
+
 	
 	// ========================================================================
 	// ================================ FIELDS ================================
@@ -34,9 +58,30 @@ public final class Model
 
 	private int nrPlayers;		// 1 if playing against the AI, 2 if human vs human.
 
-	private char[][] board;		// Board representation.
+	private long[] bitboard1;	// Board representation: pieces of player 1 ('X'), one bit per cell.
+	private long[] bitboard2;	// Pieces of player 2 ('O').
+	private long[] fullMask;	// All the cells of the current board.
+	private int colStride;		// Number of bits taken by each column (nrRows + 1).
+
 	private int playerTurn;		// The indicator showing whose turn it is. Can be 1 or 2.
-	private int[] colHeight;	// Current height of each of nrCols columns.
+	private int[] colHeight;	// Current height of each of nrCols columns (sized for MAX_COLS, so it is never reallocated).
+	private long hash;			// Zobrist hash of the position, updated with every move.
+	private long mirrorHash;	// Zobrist hash of the same position reflected left to right.
+
+	// The columns of the moves played since the board was set up, oldest first (used for saving the
+	// game move by move and for replays). Setting up the board in any other way starts a new history,
+	// with a new version number.
+	private final int[] moveHistory = new int[MAX_ROWS * MAX_COLS];
+	private int moveCount;
+	private int historyVersion;
+
+	// The versions are counted for all the models together, so two models only have the same version
+	// if one is a copy of the other (made while the history was the same).
+	private static final AtomicInteger HISTORY_VERSIONS = new AtomicInteger();
+
+	// The NPC's heuristic, kept up to date with every move once it has been asked for.
+	private Evaluator evaluator;
+	private boolean evaluatorInSync;
 
 	private int difficulty;
 
@@ -51,14 +96,74 @@ public final class Model
 		piecesInRow = DEFAULT_X;
 
 
-		// Board represented by an 'nrRow x nrCols' array.
-		board = new char[nrRows][nrCols];
+		// Board represented by two bitboards (one for each player).
+		bitboard1 = new long[BOARD_WORDS];
+		bitboard2 = new long[BOARD_WORDS];
+		fullMask = new long[BOARD_WORDS];
+		initialiseMask();
 
 		playerTurn = 1;
-		colHeight = new int[nrCols];
+		colHeight = new int[MAX_COLS];
 		difficulty = 0;
 	}
 
+	// A copy of another model (used to give each thread of the parallel search its own board).
+	public Model(Model other)
+	{
+		bitboard1 = new long[BOARD_WORDS];
+		bitboard2 = new long[BOARD_WORDS];
+		fullMask = new long[BOARD_WORDS];
+		colHeight = new int[MAX_COLS];
+		copyFrom(other);
+	}
+
+	// Makes this model an exact copy of the other one.
+	public void copyFrom(Model other)
+	{
+		nrRows = other.nrRows;
+		nrCols = other.nrCols;
+		piecesInRow = other.piecesInRow;
+		nrPlayers = other.nrPlayers;
+		playerTurn = other.playerTurn;
+		difficulty = other.difficulty;
+		colStride = other.colStride;
+		hash = other.hash;
+		mirrorHash = other.mirrorHash;
+
+		System.arraycopy(other.bitboard1, 0, bitboard1, 0, BOARD_WORDS);
+		System.arraycopy(other.bitboard2, 0, bitboard2, 0, BOARD_WORDS);
+		System.arraycopy(other.fullMask, 0, fullMask, 0, BOARD_WORDS);
+		System.arraycopy(other.colHeight, 0, colHeight, 0, nrCols);
+		System.arraycopy(other.moveHistory, 0, moveHistory, 0, other.moveCount);
+		moveCount = other.moveCount;
+		historyVersion = other.historyVersion;
+		evaluatorInSync = false;
+	}
+
+	// Makes this model a copy of the other one, like 'copyFrom'. If the other model is the same game
+	// some moves further on (e.g. this is the copy the NPC searched on its previous move), only the
+	// missing moves are played, which keeps the heuristic up to date instead of counting it again.
+	public void follow(Model other)
+	{
+		if (historyVersion != other.historyVersion || moveCount > other.moveCount || nrRows != other.nrRows
+				|| nrCols != other.nrCols || piecesInRow != other.piecesInRow
+				|| !Arrays.equals(moveHistory, 0, moveCount, other.moveHistory, 0, moveCount)) {
+			copyFrom(other);
+			return;
+		}
+
+		for (int k = moveCount; k < other.moveCount; k++) {
+			int move = other.moveHistory[k];
+			playerTurn = other.hasPiece(1, (move - 1) * colStride + colHeight[move - 1]) ? 1 : 2;
+			makeMove(move);
+		}
+		playerTurn = other.playerTurn;
+		nrPlayers = other.nrPlayers;
+		difficulty = other.difficulty;
+		hash = other.hash;
+		mirrorHash = other.mirrorHash;
+	}
+
 	// =========================================================================
 	// ================================ SETTERS ================================
 	// =========================================================================
@@ -68,18 +173,31 @@ public final class Model
 	{
 		nrRows = rows;
 		nrCols = cols;
-		board = new char[rows][cols];
-		colHeight = new int[cols];
+		for (int w = 0; w < BOARD_WORDS; w++) {
+			bitboard1[w] = 0;
+			bitboard2[w] = 0;
+		}
+		initialiseMask();
+		Arrays.fill(colHeight, 0);
+		hash = (playerTurn == 2) ? SIDE_KEY : 0;
+		mirrorHash = hash;
+		startNewHistory();
+		evaluatorInSync = false;
 	}
 
 	// Change 'X' to the user-inputted value.
 	public void setX(int x)
 	{
 		piecesInRow = x;
+		evaluatorInSync = false;
 	}
 
 	public void setTurn(int turn)
 	{
+		if (turn != playerTurn) {
+			hash ^= SIDE_KEY;
+			mirrorHash ^= SIDE_KEY;
+		}
 		playerTurn = turn;
 	}
 
@@ -97,12 +215,81 @@ public final class Model
 	{
 		for (int i = 0; i < nrRows; i++) {
 			for (int j = 0; j < nrCols; j++) {
-				board[i][j] = boardFromFile[i][j];
-				if ((board[i][j] == 'X' || board[i][j] == 'O') && colHeight[j] == 0) colHeight[j] = nrRows - i;
+				int bit = bitIndex(i, j);
+				if (boardFromFile[i][j] == 'X') {
+					bitboard1[bit >>> 6] |= 1L << bit;
+					hash ^= ZOBRIST[0][bit];
+					mirrorHash ^= ZOBRIST[0][bitIndex(i, nrCols - 1 - j)];
+				}
+				else if (boardFromFile[i][j] == 'O') {
+					bitboard2[bit >>> 6] |= 1L << bit;
+					hash ^= ZOBRIST[1][bit];
+					mirrorHash ^= ZOBRIST[1][bitIndex(i, nrCols - 1 - j)];
+				}
+				else continue;
+
+				if (colHeight[j] == 0) colHeight[j] = nrRows - i;
+			}
+		}
+		startNewHistory();
+		evaluatorInSync = false;
+	}
+
+	// Places the pieces of both players at once, replacing those on the board. The bitboards have the
+	// layout of 'getBitboard' for the current size of the board (bits outside of it are ignored).
+	public void setPieces(long[] player1, long[] player2)
+	{
+		for (int w = 0; w < BOARD_WORDS; w++) {
+			bitboard1[w] = (w < player1.length) ? player1[w] & fullMask[w] : 0;
+			bitboard2[w] = (w < player2.length) ? player2[w] & fullMask[w] & ~bitboard1[w] : 0;
+		}
+
+		hash = (playerTurn == 2) ? SIDE_KEY : 0;
+		mirrorHash = hash;
+		for (int j = 0; j < nrCols; j++) {
+			colHeight[j] = 0;
+			for (int k = 0; k < nrRows; k++) {
+				int bit = j * colStride + k;
+				int mirrorBit = (nrCols - 1 - j) * colStride + k;
+				int player;
+				if (hasPiece(1, bit)) player = 0;
+				else if (hasPiece(2, bit)) player = 1;
+				else continue;
+
+				hash ^= ZOBRIST[player][bit];
+				mirrorHash ^= ZOBRIST[player][mirrorBit];
+				colHeight[j] = k + 1;
+			}
+		}
+		startNewHistory();
+		evaluatorInSync = false;
+	}
+
+	private void startNewHistory()
+	{
+		moveCount = 0;
+		historyVersion = HISTORY_VERSIONS.incrementAndGet();
+	}
+
+	// Marks every cell of the 'nrRows x nrCols' board in the mask (sentinel bits are left out).
+	private void initialiseMask()
+	{
+		colStride = nrRows + 1;
+		for (int w = 0; w < BOARD_WORDS; w++) fullMask[w] = 0;
+		for (int j = 0; j < nrCols; j++) {
+			for (int k = 0; k < nrRows; k++) {
+				int bit = j * colStride + k;
+				fullMask[bit >>> 6] |= 1L << bit;
 			}
 		}
 	}
 
+	// Position of the cell in row 'i' (counted from the top) and column 'j' within the bitboards.
+	private int bitIndex(int i, int j)
+	{
+		return j * colStride + (nrRows - 1 - i);
+	}
+
 	// ====================================================================================
 	// ================================ MODEL INTERACTIONS ================================
 	// ====================================================================================
@@ -110,30 +297,55 @@ public final class Model
 	public void makeMove(int move)
 	{
 		if (move != 0) {
-			if (playerTurn == 1) board[nrRows - colHeight[move - 1] - 1][move - 1] = 'X';
-			else board[nrRows - colHeight[move - 1] - 1][move - 1] = 'O';
+			int bit = (move - 1) * colStride + colHeight[move - 1];
+			if (playerTurn == 1) bitboard1[bit >>> 6] |= 1L << bit;
+			else bitboard2[bit >>> 6] |= 1L << bit;
+			hash ^= ZOBRIST[playerTurn - 1][bit];
+			mirrorHash ^= ZOBRIST[playerTurn - 1][(nrCols - move) * colStride + colHeight[move - 1]];
+			if (evaluatorInSync) evaluator.pieceAdded(move, nrRows - 1 - colHeight[move - 1], playerTurn);
 
 			colHeight[move-1]++;
+			moveHistory[moveCount++] = move;
 		}
 	}
 
 	public void removePiece(int piece)
 	{
 		colHeight[piece-1]--;
-		board[nrRows - colHeight[piece - 1] - 1][piece-1] = ' ';
+		int bit = (piece - 1) * colStride + colHeight[piece - 1];
+		int player = ((bitboard1[bit >>> 6] & (1L << bit)) != 0) ? 1 : 2;
+		hash ^= ZOBRIST[player - 1][bit];
+		mirrorHash ^= ZOBRIST[player - 1][(nrCols - piece) * colStride + colHeight[piece - 1]];
+		if (evaluatorInSync) evaluator.pieceRemoved(piece, nrRows - 1 - colHeight[piece - 1], player);
+		bitboard1[bit >>> 6] &= ~(1L << bit);
+		bitboard2[bit >>> 6] &= ~(1L << bit);
+
+		// Taking back the last move shortens the history; any other piece makes it meaningless.
+		if (moveCount > 0 && moveHistory[moveCount - 1] == piece) moveCount--;
+		else startNewHistory();
+	}
+
+	// Checking if the board looks the same in a mirror (every column holds the same pieces as the opposite one).
+	public boolean isSymmetric()
+	{
+		if (hash != mirrorHash) return false;
+		for (int j = 0; j < nrCols / 2; j++) {
+			int mirror = nrCols - 1 - j;
+			if (colHeight[j] != colHeight[mirror]) return false;
+			for (int k = 0; k < colHeight[j]; k++) {
+				if (hasPiece(1, j * colStride + k) != hasPiece(1, mirror * colStride + k)) return false;
+			}
+		}
+		return true;
 	}
 
 	// Checking if the board still have free positions.
 	public boolean boardFull()
 	{
-		boolean isFull = true;
-		for (int i = 0; i < nrCols; i++) {
-			if (colHeight[i] < nrRows) {
-				isFull = false;
-				break;
-			}
+		for (int w = 0; w < BOARD_WORDS; w++) {
+			if ((bitboard1[w] | bitboard2[w]) != fullMask[w]) return false;
 		}
-		return isFull;
+		return true;
 	}
 
 	// Switching turns (from 1 to 2 or from 2 to 1).
@@ -141,6 +353,8 @@ public final class Model
 	{
 		if (playerTurn == 1) playerTurn = 2;
 		else playerTurn = 1;
+		hash ^= SIDE_KEY;
+		mirrorHash ^= SIDE_KEY;
 	}
 	
 	// =========================================================================
@@ -168,7 +382,91 @@ public final class Model
 
 	public char getBoard(int i, int j)
 	{
-		return board[i][j];
+		int bit = bitIndex(i, j);
+		if ((bitboard1[bit >>> 6] & (1L << bit)) != 0) return 'X';
+		else if ((bitboard2[bit >>> 6] & (1L << bit)) != 0) return 'O';
+		else return ' ';
+	}
+
+	// Number of pieces on the whole board.
+	public int countPieces()
+	{
+		int pieces = 0;
+		for (int w = 0; w < BOARD_WORDS; w++) pieces += Long.bitCount(bitboard1[w] | bitboard2[w]);
+		return pieces;
+	}
+
+	// Number of pieces in the column (from 1 to nrCols).
+	public int getColHeight(int column)
+	{
+		return colHeight[column - 1];
+	}
+
+	// The incremental heuristic for the current board (built or recounted only when needed).
+	public Evaluator getEvaluator()
+	{
+		if (evaluator == null || !evaluator.fits(nrRows, nrCols, piecesInRow)) {
+			evaluator = new Evaluator(nrRows, nrCols, piecesInRow);
+			evaluatorInSync = false;
+		}
+		if (!evaluatorInSync) {
+			evaluator.resync(this);
+			evaluatorInSync = true;
+		}
+		return evaluator;
+	}
+
+	public long getHash()
+	{
+		return hash;
+	}
+
+	public long getMirrorHash()
+	{
+		return mirrorHash;
+	}
+
+	// The same hash for a position and its mirror image (the smaller of the two).
+	public long getCanonicalHash()
+	{
+		return Math.min(hash, mirrorHash);
+	}
+
+	public int getColStride()
+	{
+		return colStride;
+	}
+
+	// One 64-bit word of the given player's bitboard.
+	public long getBitboard(int player, int word)
+	{
+		if (player == 1) return bitboard1[word];
+		else return bitboard2[word];
+	}
+
+	// Checking if the given player has a piece on the given bit (sentinel bits are always empty).
+	public boolean hasPiece(int player, int bit)
+	{
+		if (player == 1) return (bitboard1[bit >>> 6] & (1L << bit)) != 0;
+		else return (bitboard2[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	// Number of moves in the history.
+	public int getMoveCount()
+	{
+		return moveCount;
+	}
+
+	// The column of the move with the given index (0 for the oldest move of the history).
+	public int getMove(int index)
+	{
+		return moveHistory[index];
+	}
+
+	// Changes whenever a new history is started, which tells a history apart from an older one of the same length.
+	public int getHistoryVersion()
+	{
+		return historyVersion;
 	}
 
 	public int getPlayerTurn()
@@ -205,9 +503,9 @@ public final class Model
 			// 1) Checking if a player had entered a valid number between 1 and the number of columns.
 		else if (1 <= move && move <= nrCols) {
 
-			// 2) Checking if not all the 'nrRows' places in this column are already taken.
-			if (colHeight[move-1] < nrRows) return true;
-			else return false;
+			// 2) Checking if the top cell of this column is not taken yet.
+			int top = (move - 1) * colStride + nrRows - 1;
+			return ((bitboard1[top >>> 6] | bitboard2[top >>> 6]) & (1L << top)) == 0;
 		}
 		else return false;
 	}
@@ -227,7 +525,7 @@ public final class Model
 
 	public boolean isDifficultyValid (int dif)
 	{
-		if (1 <= dif && dif <= 3) return true;
+		if (1 <= dif && dif <= 4) return true;
 		else return false;
 	}
 }
@@ -0,0 +1,328 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class contains an append-only journal of a game: instead of writing the whole board after
+ * every move, only the move is added to the end of the file (a single byte).
+ *
+ * The file starts with a header (the magic number "C4JL" and the format version), followed by records:
+ *   1 .. MAX_COLS   a move into that column (after which the other player is to move),
+ *   UNDO            the last move was taken back,
+ *   SNAPSHOT        followed by the length of a GameSnapshot and the snapshot itself.
+ * The journal of a game starts with a snapshot of its first position, so all the moves of the game
+ * can be read back from it (see 'readMoves'). To keep recovery short, another snapshot is added
+ * every 'snapshotInterval' moves (and whenever moves from before the last one are taken back),
+ * and a game is recovered by loading the last complete snapshot and replaying the moves after it.
+ * A record cut short by a crash at the end of the file is ignored and overwritten by the next one.
+ *
+ * The records are written to the file as the moves are made, but the operating system may keep them
+ * in memory for a while. How often they are forced onto the disk is a trade-off between speed and
+ * how many moves a power cut can lose: after every 'syncEvery' records (0 leaves it to the operating
+ * system), and at the latest when a record is written 'syncDelayMillis' milliseconds after the oldest
+ * record which has not been forced yet (0 for no limit). Whatever is left is forced by 'close()'.
+ *
+ * @author s2013670
+ */
+
+public final class MoveJournal {
+
+    // "C4JL"
+    private static final int MAGIC = 0x43344A4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 1;
+
+    private static final int UNDO = 0x7F;
+    private static final int SNAPSHOT = 0xFF;
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 32;
+
+    private final File file;
+    private final int syncEvery;
+    private final long syncDelayMillis;
+    private final int snapshotInterval;
+
+    // Open for writing at the end of the file while a game is being recorded.
+    private FileChannel channel;
+
+    // The records of one call of 'record': an undo or a move for every cell of the board, and a snapshot.
+    private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 2 * Model.MAX_ROWS * Model.MAX_COLS
+            + 2 + GameSnapshot.MAX_BYTES);
+
+    // The game in the journal: its model, the version of the model's history, the moves of that
+    // history which are in the journal, and the number of them played before the last snapshot.
+    private Model model;
+    private int historyVersion;
+    private final int[] written = new int[Model.MAX_ROWS * Model.MAX_COLS];
+    private int writtenCount;
+    private int snapshotCount;
+
+    // Records written since the last time they were forced onto the disk, and when the first of them was.
+    private int unsynced;
+    private long firstUnsyncedNanos;
+
+
+    // Every record is forced onto the disk.
+    public MoveJournal(File file)
+    {
+        this(file, 1, 0, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    public MoveJournal(File file, int syncEvery, long syncDelayMillis, int snapshotInterval)
+    {
+        this.file = file;
+        this.syncEvery = syncEvery;
+        this.syncDelayMillis = syncDelayMillis;
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    // Brings the journal up to date with the model: the moves taken back since the last call are
+    // undone, and the moves played since then are added. A model which does not continue the game
+    // in the journal (another model, or one which has been set up again) starts a new journal.
+    public void record(Model model) throws IOException
+    {
+        if (channel == null || model != this.model || model.getHistoryVersion() != historyVersion) {
+            start(model);
+            return;
+        }
+
+        // The moves which are the same in the journal and in the model.
+        int count = model.getMoveCount();
+        int common = 0;
+        while (common < writtenCount && common < count && written[common] == model.getMove(common)) common++;
+        if (common == writtenCount && common == count) return;
+
+        buffer.clear();
+        for (int k = writtenCount; k > common; k--) buffer.put((byte) UNDO);
+        for (int k = common; k < count; k++) {
+            written[k] = model.getMove(k);
+            buffer.put((byte) written[k]);
+        }
+        int records = (writtenCount - common) + (count - common);
+        writtenCount = count;
+
+        // Replaying from the last snapshot cannot undo the moves played before it.
+        if (common < snapshotCount || count - snapshotCount >= snapshotInterval) {
+            putSnapshot(model);
+            records++;
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        recordsWritten(records);
+    }
+
+    // Starts a new journal with the model's position. It is written next to the journal first and
+    // then renamed over it, so the old journal is still complete if this is interrupted.
+    private void start(Model model) throws IOException
+    {
+        close();
+
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        writtenCount = model.getMoveCount();
+        for (int k = 0; k < writtenCount; k++) written[k] = model.getMove(k);
+        putSnapshot(model);
+        buffer.flip();
+
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) out.write(buffer);
+            out.force(true);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        open(model, Files.size(file.toPath()));
+        recordsWritten(1);
+    }
+
+    private void putSnapshot(Model model)
+    {
+        buffer.put((byte) SNAPSHOT);
+        buffer.put((byte) GameSnapshot.size(model));
+        GameSnapshot.write(model, buffer);
+        snapshotCount = model.getMoveCount();
+    }
+
+    // Opens the journal for writing after its first 'length' bytes (anything after them is cut off).
+    private void open(Model model, long length) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.truncate(length);
+        channel.position(length);
+        this.model = model;
+        historyVersion = model.getHistoryVersion();
+        unsynced = 0;
+    }
+
+    private void recordsWritten(int records) throws IOException
+    {
+        if (unsynced == 0) firstUnsyncedNanos = System.nanoTime();
+        unsynced += records;
+
+        boolean due = (syncEvery > 0 && unsynced >= syncEvery)
+                || (syncDelayMillis > 0 && System.nanoTime() - firstUnsyncedNanos >= syncDelayMillis * 1000000L);
+        if (due) sync();
+    }
+
+    // Forces the records written so far onto the disk.
+    public void sync() throws IOException
+    {
+        if (channel != null && unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    // Stops recording the game (the journal stays on the disk).
+    public void close() throws IOException
+    {
+        if (channel == null) return;
+        try {
+            if (syncEvery > 0 || syncDelayMillis > 0) sync();
+        }
+        finally {
+            channel.close();
+            channel = null;
+            model = null;
+        }
+    }
+
+    // Stops recording the game and deletes the journal.
+    public void delete() throws IOException
+    {
+        close();
+        file.delete();
+    }
+
+    // ===========================================================================================
+    // ========================================  Reading  ========================================
+    // ===========================================================================================
+
+    // Loads the game from the journal into the model (the last snapshot and the moves after it) and
+    // goes on recording it. Returns false if there is no journal.
+    public boolean recover(Model model) throws IOException
+    {
+        close();
+        if (!file.exists()) return false;
+
+        ByteBuffer data = readFile(file);
+
+        // The last complete snapshot, and the end of the complete records.
+        int snapshot = -1;
+        int end = HEADER_BYTES;
+        while (end < data.limit()) {
+            int length = recordLength(data, end);
+            if (length == 0) break;
+            if ((data.get(end) & 0xFF) == SNAPSHOT) snapshot = end;
+            end += length;
+        }
+        if (snapshot < 0) throw new IOException("The journal has no complete snapshot: " + file);
+
+        data.position(snapshot + 2);
+        GameSnapshot.read(data, model);
+
+        // Replaying the moves after the snapshot (a record which does not fit the board ends the journal).
+        int position = snapshot + recordLength(data, snapshot);
+        for (; position < end; position++) {
+            int record = data.get(position) & 0xFF;
+            if (record == UNDO) {
+                if (model.getMoveCount() == 0) break;
+                model.switchTurn();
+                model.removePiece(model.getMove(model.getMoveCount() - 1));
+            }
+            else {
+                if (record > model.getNrCols() || !model.isMoveValid(record)) break;
+                model.makeMove(record);
+                model.switchTurn();
+            }
+        }
+
+        writtenCount = model.getMoveCount();
+        for (int k = 0; k < writtenCount; k++) written[k] = model.getMove(k);
+        snapshotCount = 0;
+        open(model, position);
+        return true;
+    }
+
+    // Loads the first position of the game in the journal into 'start' and returns all the moves
+    // played from there, in order (the moves which were taken back are left out).
+    public static int[] readMoves(File file, Model start) throws IOException
+    {
+        ByteBuffer data = readFile(file);
+        int[] moves = new int[Model.MAX_ROWS * Model.MAX_COLS];
+        int count = 0;
+        boolean started = false;
+
+        for (int position = HEADER_BYTES; position < data.limit(); ) {
+            int length = recordLength(data, position);
+            if (length == 0) break;
+
+            int record = data.get(position) & 0xFF;
+            if (record == SNAPSHOT) {
+                if (!started) {
+                    data.position(position + 2);
+                    GameSnapshot.read(data, start);
+                    started = true;
+                }
+            }
+            else if (record == UNDO) {
+                if (count > 0) count--;
+            }
+            else if (count < moves.length) moves[count++] = record;
+            position += length;
+        }
+        if (!started) throw new IOException("The journal has no complete snapshot: " + file);
+        return Arrays.copyOf(moves, count);
+    }
+
+    // The length of the record at the position, or 0 if it is cut short or not a record at all.
+    private static int recordLength(ByteBuffer data, int position)
+    {
+        int record = data.get(position) & 0xFF;
+        if (record == SNAPSHOT) {
+            if (position + 2 > data.limit()) return 0;
+            int length = 2 + (data.get(position + 1) & 0xFF);
+            return (position + length <= data.limit()) ? length : 0;
+        }
+        if (record == UNDO || (1 <= record && record <= Model.MAX_COLS)) return 1;
+        return 0;
+    }
+
+    // The whole journal in one read (after checking its header).
+    private static ByteBuffer readFile(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("The journal is too big: " + file);
+
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) throw new IOException("The journal changed while it was read: " + file);
+            }
+            data.flip();
+
+            if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC) throw new IOException("Not a journal: " + file);
+            if (data.get(4) != VERSION) throw new IOException("Unsupported version of the journal: " + data.get(4));
+            return data;
+        }
+    }
+}
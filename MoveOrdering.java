@@ -0,0 +1,124 @@
+/**
+ * This class decides in which order the NPC tries the columns during the alpha-beta search.
+ * The sooner a good move is tried, the sooner the rest of the moves can be cut off.
+ *
+ * Columns near the centre always come first (they take part in the largest number of lines).
+ * On top of that the order can be refined with killer moves (the moves which caused a cut-off
+ * in a sibling position at the same ply) and with the history heuristic (columns which caused
+ * cut-offs anywhere in the tree, weighted by the depth of the cut-off).
+ *
+ * @author s2013670
+ */
+
+public final class MoveOrdering {
+
+    // The deepest possible search: one ply for each cell of the biggest board (plus the root).
+    public static final int MAX_PLY = Model.MAX_ROWS * Model.MAX_COLS + 1;
+
+    // Priorities are packed into one int: the best move remembered by the transposition table
+    // comes first, then killers, then history, then the centre bonus.
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int FIRST_KILLER = 1 << 29;
+    private static final int SECOND_KILLER = 1 << 28;
+    private static final int HISTORY_SHIFT = 6;
+    private static final int HISTORY_LIMIT = 1 << 21;
+
+    private final boolean useKillers;
+    private final boolean useHistory;
+
+    // Buffers are allocated once, so ordering the moves of a node does not allocate anything.
+    private final int[][] moves = new int[MAX_PLY][Model.MAX_COLS];
+    private final int[] priorities = new int[Model.MAX_COLS];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[] history = new int[Model.MAX_COLS + 1];
+
+
+    public MoveOrdering()
+    {
+        this(true, true);
+    }
+
+    public MoveOrdering(boolean useKillers, boolean useHistory)
+    {
+        this.useKillers = useKillers;
+        this.useHistory = useHistory;
+    }
+
+    // A new ordering with the same settings (and empty tables), for a search on another thread.
+    public MoveOrdering newInstance()
+    {
+        return new MoveOrdering(useKillers, useHistory);
+    }
+
+
+    // Fills the move list of this ply with all the valid columns (best first) and returns their number.
+    public int orderMoves(Model model, int ply)
+    {
+        return orderMoves(model, ply, 0);
+    }
+
+    // The same, but 'hashMove' (the best move found by an earlier search, 0 if none) is tried first.
+    public int orderMoves(Model model, int ply, int hashMove)
+    {
+        int cols = model.getNrCols();
+        int[] list = moves[ply];
+        int count = 0;
+
+        for (int column = 1; column <= cols; column++) {
+            if (!model.isMoveValid(column)) continue;
+
+            // The centre bonus is bigger for columns closer to the middle of the board.
+            int priority = cols - Math.abs(2 * column - cols - 1);
+            if (useHistory) priority += Math.min(history[column], HISTORY_LIMIT) << HISTORY_SHIFT;
+            if (column == hashMove) priority += HASH_MOVE;
+            if (useKillers) {
+                if (killers[ply][0] == column) priority += FIRST_KILLER;
+                else if (killers[ply][1] == column) priority += SECOND_KILLER;
+            }
+
+            // Insertion sort (at most 20 moves), equal priorities keep the column order.
+            int k = count;
+            while (k > 0 && priorities[k - 1] < priority) {
+                priorities[k] = priorities[k - 1];
+                list[k] = list[k - 1];
+                k--;
+            }
+            priorities[k] = priority;
+            list[k] = column;
+            count++;
+        }
+        return count;
+    }
+
+    public int[] getMoves(int ply)
+    {
+        return moves[ply];
+    }
+
+    // Called when 'column' has caused a cut-off at this ply with 'depth' plies left to search.
+    public void recordCutoff(int ply, int column, int depth)
+    {
+        if (useKillers && killers[ply][0] != column) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = column;
+        }
+
+        if (useHistory) {
+            history[column] += depth * depth;
+            if (history[column] >= HISTORY_LIMIT) {
+                for (int i = 0; i < history.length; i++) history[i] /= 2;
+            }
+        }
+    }
+
+    // Prepares the tables for a new search: killers only make sense for the previous position,
+    // while the history is kept but halved so that it adapts to the new position.
+    public void newSearch()
+    {
+        for (int[] killer : killers) {
+            killer[0] = 0;
+            killer[1] = 0;
+        }
+        for (int i = 0; i < history.length; i++) history[i] /= 2;
+    }
+}
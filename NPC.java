@@ -1,9 +1,20 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * This class contains the features of a Non-Player Character.
  * It provides the strategy for the AI to always make the best possible moves.
  * Implementation is based on the MinMax algorithm but also contains some additional features
  * (more on those features and the heuristics of MinMax in the report).
  *
+ * The searches work on a copy of the caller's board, which is never changed. Everything an NPC
+ * needs is allocated once, big enough for any board, so one NPC can play any number of games.
+ * An NPC searches for one caller at a time; EnginePool shares a few of them between many threads.
+ *
  * @author s2013670
  */
 
@@ -12,43 +23,954 @@ public final class NPC {
 
     public NPC()
     {
+        this(DEFAULT_TABLE_MB);
+    }
+
+    // The size of the transposition table can be tuned to the memory available to the AI.
+    public NPC(int tableSizeMb)
+    {
+        table = new TranspositionTable(tableSizeMb);
+    }
+
+    static final int INFINITY = 1000000000;
+
+    public static final int DEFAULT_TABLE_MB = 16;
+
+    // The search depth of the "Expert" level, which also uses the perfect-play solver.
+    public static final int EXPERT_DEPTH = 8;
+
+    // With the solver switched on, it takes over once this many cells (or fewer) are left empty,
+    // and from the very start on boards of up to SOLVED_BOARD_CELLS cells (up to 6x5).
+    public static final int DEFAULT_SOLVER_THRESHOLD = 16;
+    public static final int SOLVED_BOARD_CELLS = 30;
+
+    // Results of earlier searches, shared by all the searches of a game (and by all the threads).
+    private final TranspositionTable table;
+
+    // Hashes only identify positions on boards of the same shape, so the table
+    // is cleared whenever the size of the board or 'X' changes.
+    private int tableRows;
+    private int tableCols;
+    private int tableX;
+
+    // The perfect-play solver (created when it is needed for the first time) and the number
+    // of empty cells from which it takes over (0 switches it off).
+    private Solver solver;
+    private int solverThreshold;
+
+    // Opening books (one for each board configuration they were generated for). The easier
+    // levels keep making their own choices, so the books are only used from BOOK_MIN_DEPTH on.
+    private final List<OpeningBook> books = new ArrayList<>();
+    public static final int BOOK_MIN_DEPTH = 4;
+
+    // Mirrored moves of a symmetric position lead to mirrored positions, so with symmetry pruning
+    // only one of them is searched, and a position shares its table entry with its mirror image.
+    // The heuristic does not score every position exactly like its mirror image (see
+    // 'scoreDiagonalUp'), so this can change the move chosen and is only used when asked for.
+    private boolean symmetryPruning;
+
+    // Points given at the leaves of the alpha-beta search for every threat of the AI on its own rows
+    // (see ThreatAnalysis.threatBalance), which decide the endgame once the board fills up. It is 0
+    // by default, as it changes the scores of 'calculateScore' and costs a scan of the empty cells.
+    private int parityWeight;
+
+    // Move ordering used by the alpha-beta search (centre first, killer moves and history).
+    private MoveOrdering ordering = new MoveOrdering();
+
+    // The copy of the caller's board which is searched, and the context of the search on the caller's thread.
+    private final Model searchModel = new Model();
+    private SearchContext mainContext;
+
+    // Number of positions visited by the last alpha-beta search, and what else it counted.
+    private long nodes;
+    private final SearchCounters counters = new SearchCounters();
+
+    // Where the searches are measured (null when they are not, see EngineMetrics).
+    private EngineMetrics metrics;
+
+    // The trace of the searches (null if they are not traced), how the last move was decided when it
+    // needed no search ("book", "threat", "solver" or "pondered", otherwise null), and the record of the 'minimax'
+    // search running now with the positions it has visited.
+    private SearchTrace trace;
+    private String decidedBy;
+    private SearchTrace.Record minimaxRecord;
+    private long minimaxNodes;
+
+    // The principal variation of the search being traced.
+    private final int[] principalVariation = new int[Model.MAX_ROWS * Model.MAX_COLS];
+
+    // Time control of the iterative deepening search. The clock is only read every
+    // TIME_CHECK_INTERVAL + 1 nodes, and a search which has run out of time is abandoned.
+    // Both fields are shared with the threads of the parallel search.
+    private static final int TIME_CHECK_INTERVAL = 1023;
+    private volatile long deadline = Long.MAX_VALUE;
+    private volatile boolean aborted;
+
+    // Score of the best root move and the depth of the last search which has been completed.
+    private int rootScore;
+    private int completedDepth;
+
+    // Sides of the original MinMax search.
+    private static final int AI = 0;
+    private static final int PLAYER = 1;
+    private static final int EXTRA_CHECK = 2;
+
+    // Score arrays of the original MinMax search, one row for each ply.
+    private final int[][] maxScoreBuffer = new int[MoveOrdering.MAX_PLY][Model.MAX_COLS + 1];
+    private final int[][] sameScoreBuffer = new int[MoveOrdering.MAX_PLY][Model.MAX_COLS];
+
+    // Columns sharing the best score at the root (to break the tie in the same way as 'minimax').
+    private final int[] tiedColumns = new int[Model.MAX_COLS];
+
+    // Scores of the root moves found by the parallel search.
+    private final int[] rootScores = new int[Model.MAX_COLS];
+
+    // Parallel search: the root moves are shared out between the threads of a work-stealing pool.
+    // Each thread searches its own copy of the board (with its own move ordering tables, set up like
+    // 'ordering'). They are replaced when the move ordering is.
+    private int threads = 1;
+    private ForkJoinPool pool;
+    private ThreadLocal<SearchContext> workerContext = newWorkerContext();
+
+    // Pondering: while the opponent thinks, a thread searches the answer to each of their replies on
+    // a copy of the board (with its own move ordering tables), filling the transposition table. The
+    // moves found for the replies (all of them 'ponderedDepth' plies deep) are kept until the next move.
+    private boolean pondering;
+    private Thread ponderThread;
+    private SearchContext ponderContext;
+    private final int[] ponderReplies = new int[Model.MAX_COLS];
+    private final long[] ponderedHashes = new long[Model.MAX_COLS];
+    private final int[] ponderedColumns = new int[Model.MAX_COLS];
+    private int nrPondered;
+    private int ponderedDepth;
+
+
+    public void setMoveOrdering(MoveOrdering ordering)
+    {
+        stopPondering();
+        this.ordering = ordering;
+        mainContext = null;
+        ponderContext = null;
+        workerContext = newWorkerContext();
+    }
+
+    private ThreadLocal<SearchContext> newWorkerContext()
+    {
+        MoveOrdering settings = ordering;
+        return ThreadLocal.withInitial(() -> new SearchContext(new Model(), settings.newInstance()));
+    }
+
+    // The solver plays the endgame once there are at most 'emptyCells' empty cells (0 switches it off).
+    public void setSolverThreshold(int emptyCells)
+    {
+        solverThreshold = emptyCells;
+    }
+
+    public void setSymmetryPruning(boolean enabled)
+    {
+        symmetryPruning = enabled;
+    }
+
+    public void setParityWeight(int weight)
+    {
+        parityWeight = weight;
+    }
+
+    public void setMetrics(EngineMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    // Writes the decisions of the searches into the trace (null stops the tracing).
+    public void setTrace(SearchTrace trace)
+    {
+        this.trace = trace;
+    }
+
+    public void addOpeningBook(OpeningBook book)
+    {
+        books.add(book);
+    }
+
+    // Number of threads used by the search (1 searches on the caller's thread only).
+    public void setThreads(int threads)
+    {
+        shutdown();
+        this.threads = Math.max(1, threads);
+    }
+
+    // Lets the AI search while the opponent thinks (see startPondering).
+    public void setPondering(boolean enabled)
+    {
+        pondering = enabled;
+        if (!enabled) stopPondering();
+    }
+
+    // Stops the threads of the parallel search (they are started again when needed) and the pondering.
+    public void shutdown()
+    {
+        stopPondering();
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
 
+    public long getNodeCount()
+    {
+        return nodes;
     }
 
-    private static final int INFINITY = 1000000000;
+    public SearchCounters getCounters()
+    {
+        return counters;
+    }
+
+    public int getCompletedDepth()
+    {
+        return completedDepth;
+    }
+
+    public TranspositionTable getTranspositionTable()
+    {
+        return table;
+    }
+
+    // ===========================================================================================
+    // ==================  Alpha-beta search. It finds the same scores as MinMax  ================
+    // ==================  but skips the moves which cannot change the result.    ================
+    // ===========================================================================================
+
+    // Returns the best column for the player whose turn it is, searching 'depth' plies ahead.
+    public int bestMove(Model model, int depth)
+    {
+        stopPondering();
+        long start = System.nanoTime();
+        counters.clear();
+        decidedBy = null;
+        int column = searchBestMove(model, depth);
+        if (metrics != null) metrics.recordMove(System.nanoTime() - start, completedDepth, nodes, counters);
+        if (trace != null && decidedBy != null) traceDecision(model, depth, column, start);
+        return column;
+    }
+
+    private int searchBestMove(Model model, int depth)
+    {
+        if (depth >= BOOK_MIN_DEPTH) {
+            int column = bookMove(model);
+            if (column != 0) return column;
+        }
+        if (shouldSolve(model)) return solve(model);
+
+        SearchContext context = prepareSearch(model);
+        deadline = Long.MAX_VALUE;
+
+        // A search two plies deep sees the immediate threats anyway, so it is skipped when they decide the move.
+        if (depth >= 2) {
+            int column = obviousMove(context);
+            if (column != 0) {
+                completedDepth = depth;
+                nodes = 0;
+                decidedBy = "threat";
+                return column;
+            }
+        }
+
+        // The opponent's move may have been answered already while they were thinking.
+        int column = ponderedMove(model, depth);
+        if (column != 0) {
+            completedDepth = depth;
+            nodes = 0;
+            decidedBy = "pondered";
+            return column;
+        }
+
+        column = searchRoot(context, depth, 0);
+        completedDepth = depth;
+        nodes = context.nodes;
+        counters.add(context.counters);
+        return column;
+    }
+
+    // Returns the best column found within 'budgetMillis' milliseconds. The search is deepened one
+    // ply at a time, and every iteration tries the best moves of the previous one first (the root
+    // move directly, the rest through the transposition table). When the time runs out, the move
+    // of the last completed iteration is played, so the response time no longer depends on the board.
+    public int bestMoveTimed(Model model, long budgetMillis)
+    {
+        stopPondering();
+        long start = System.nanoTime();
+        counters.clear();
+        decidedBy = null;
+        int column = searchBestMoveTimed(model, budgetMillis);
+        if (metrics != null) metrics.recordMove(System.nanoTime() - start, completedDepth, nodes, counters);
+        if (trace != null && decidedBy != null) traceDecision(model, completedDepth, column, start);
+        return column;
+    }
+
+    // The record of a move which needed no search (the searches write their own records).
+    private void traceDecision(Model model, int depth, int column, long start)
+    {
+        trace.begin(decidedBy, model, depth).end(column, 0, nodes, System.nanoTime() - start);
+    }
+
+    private int searchBestMoveTimed(Model model, long budgetMillis)
+    {
+        int booked = bookMove(model);
+        if (booked != 0) return booked;
+        if (shouldSolve(model)) return solve(model);
+
+        SearchContext context = prepareSearch(model);
+        long start = System.nanoTime();
+        int emptyCells = model.getNrRows() * model.getNrCols() - model.countPieces();
+
+        int obvious = obviousMove(context);
+        if (obvious != 0) {
+            completedDepth = 0;
+            nodes = 0;
+            decidedBy = "threat";
+            return obvious;
+        }
+
+        // The first iteration is always completed, so there is a move to return.
+        deadline = Long.MAX_VALUE;
+        int best = searchRoot(context, 1, 0);
+        completedDepth = 1;
+
+        deadline = start + budgetMillis * 1000000L;
+        for (int depth = 2; depth <= emptyCells && Math.abs(rootScore) != INFINITY; depth++) {
+            long iterationStart = System.nanoTime();
+            int column = searchRoot(context, depth, best);
+            if (aborted) break;
+
+            best = column;
+            completedDepth = depth;
+
+            // The next iteration takes longer than this one, so there is no point in starting it
+            // if it could not finish anyway.
+            long now = System.nanoTime();
+            if (now + 2 * (now - iterationStart) > deadline) break;
+        }
+
+        deadline = Long.MAX_VALUE;
+        nodes = context.nodes;
+        counters.add(context.counters);
+        return best;
+    }
+
+    // The move of the first book which has the position, or 0 if none has it.
+    private int bookMove(Model model)
+    {
+        for (OpeningBook book : books) {
+            int column = book.lookup(model);
+            if (column != 0) {
+                nodes = 0;
+                completedDepth = 0;
+                decidedBy = "book";
+                return column;
+            }
+        }
+        return 0;
+    }
+
+    // Checking if the position is small enough for the solver to find the perfect move quickly.
+    private boolean shouldSolve(Model model)
+    {
+        if (solverThreshold <= 0) return false;
+        int cells = model.getNrRows() * model.getNrCols();
+        return cells <= SOLVED_BOARD_CELLS || cells - model.countPieces() <= solverThreshold;
+    }
+
+    private int solve(Model model)
+    {
+        if (solver == null) solver = new Solver();
+        int column = solver.bestMove(model);
+        nodes = solver.getNodeCount();
+        completedDepth = model.getNrRows() * model.getNrCols() - model.countPieces();
+        decidedBy = "solver";
+        return column;
+    }
+
+    private SearchContext prepareSearch(Model model)
+    {
+        ordering.newSearch();
+        aborted = false;
+        prepareTable(model);
+        if (mainContext == null) mainContext = new SearchContext(searchModel, ordering);
+        searchModel.follow(model);
+        mainContext.nodes = 0;
+        mainContext.counters.clear();
+        return mainContext;
+    }
+
+    // The table is cleared when the size of the board or X changes, as its entries belong to another game.
+    private void prepareTable(Model model)
+    {
+        if (tableRows != model.getNrRows() || tableCols != model.getNrCols() || tableX != model.getPiecesInRow()) {
+            table.clear();
+            nrPondered = 0;
+            tableRows = model.getNrRows();
+            tableCols = model.getNrCols();
+            tableX = model.getPiecesInRow();
+        }
+    }
+
+    // A move which needs no search: a win, the only block of the opponent's win, or the only move
+    // which does not let the opponent win on top of it. Returns 0 if the search is needed.
+    private int obviousMove(SearchContext context)
+    {
+        ThreatAnalysis threats = context.threats;
+        threats.analyse();
+        if (threats.getWinningMove() != 0) return threats.getWinningMove();
+        if (threats.getForcedMove() != 0) return threats.getForcedMove();
+
+        int safeMove = 0;
+        for (int column = 1; column <= context.model.getNrCols(); column++) {
+            if (context.model.isMoveValid(column) && !threats.givesWinAbove(column)) {
+                if (safeMove != 0) return 0;
+                safeMove = column;
+            }
+        }
+        return safeMove;
+    }
+
+    // Searches all the moves at the root and returns the best column (0 if the time has run out).
+    private int searchRoot(SearchContext context, int depth, int firstMove)
+    {
+        Model model = context.model;
+        SearchTrace.Record record = (trace == null) ? null : trace.begin(context == ponderContext ? "ponder" : "alphabeta", model, depth);
+        long start = (record == null) ? 0 : System.nanoTime();
+        long startNodes = context.nodes;
+        context.nodes++;
+        if (firstMove == 0) {
+            long key = tableKey(model);
+            firstMove = orient(model, key, TranspositionTable.moveOf(table.probe(key)));
+        }
+        int count = context.ordering.orderMoves(model, 0, firstMove);
+        int[] moves = context.ordering.getMoves(0);
+        if (symmetryPruning) count = dropMirroredMoves(model, moves, count);
+
+        int column;
+        if (threads > 1 && count > 1) column = searchRootParallel(context, depth, moves, count, record);
+        else column = searchRootSerial(context, depth, moves, count, record);
+
+        if (record != null) {
+            long nanos = System.nanoTime() - start;
+            if (aborted) record.end(0, 0, context.nodes - startNodes, nanos);
+            else {
+                record.principalVariation(principalVariation, findPrincipalVariation(context, column));
+                record.end(column, rootScore, context.nodes - startNodes, nanos);
+            }
+        }
+        return column;
+    }
+
+    // The moves at the root searched one after the other, on this thread.
+    private int searchRootSerial(SearchContext context, int depth, int[] moves, int count, SearchTrace.Record record)
+    {
+        int bestScore = -INFINITY - 1;
+        int nrTies = 0;
+
+        for (int k = 0; k < count; k++) {
+            long moveStart = (record == null) ? 0 : System.nanoTime();
+            long moveNodes = context.nodes;
+
+            // The window starts just below the best score, so that equal scores are exact too.
+            int score = searchRootMove(context, moves[k], depth, bestScore - 1);
+            if (aborted) return 0;
+            if (record != null) {
+                record.rootMove(moves[k], score > bestScore - 1, score, context.nodes - moveNodes, System.nanoTime() - moveStart);
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                tiedColumns[0] = moves[k];
+                nrTies = 1;
+            }
+            else if (score == bestScore) tiedColumns[nrTies++] = moves[k];
+        }
+
+        rootScore = bestScore;
+        return breakTie(context.model, nrTies, record);
+    }
+
+    // The score of one root move, exact if it is bigger than 'alpha'.
+    private int searchRootMove(SearchContext context, int column, int depth, int alpha)
+    {
+        Model model = context.model;
+        model.makeMove(column);
+        int score;
+        if (context.detector.isWinningMove(column)) {
+            score = INFINITY;
+            context.counters.terminals++;
+        }
+        else {
+            model.switchTurn();
+            score = -negamax(context, depth - 1, -INFINITY - 1, -alpha, 1);
+            model.switchTurn();
+        }
+        model.removePiece(column);
+        return score;
+    }
+
+    // In a symmetric position, the moves right of the centre are left out (their mirror images are
+    // searched instead). Returns the number of moves left.
+    private int dropMirroredMoves(Model model, int[] moves, int count)
+    {
+        if (!model.isSymmetric()) return count;
+
+        int nrCols = model.getNrCols();
+        int kept = 0;
+        for (int k = 0; k < count; k++) {
+            if (moves[k] <= nrCols + 1 - moves[k]) moves[kept++] = moves[k];
+        }
+        return kept;
+    }
+
+    // Leaves out the moves which let the opponent win on top of them, unless all of them do.
+    // Returns the number of moves left.
+    private static int dropMovesUnderThreats(ThreatAnalysis threats, int[] moves, int count)
+    {
+        int kept = 0;
+        for (int k = 0; k < count; k++) {
+            // If no move is kept, nothing has been overwritten and the list is still complete.
+            if (!threats.givesWinAbove(moves[k])) moves[kept++] = moves[k];
+        }
+        return kept == 0 ? count : kept;
+    }
+
+    // The key of the position in the transposition table.
+    private long tableKey(Model model)
+    {
+        return symmetryPruning ? model.getCanonicalHash() : model.getHash();
+    }
+
+    // The moves in the table belong to the position whose hash is the key, so the move
+    // of the mirror image is reflected (this works both ways).
+    private static int orient(Model model, long key, int column)
+    {
+        if (column == 0 || key == model.getHash()) return column;
+        return model.getNrCols() + 1 - column;
+    }
+
+    // The most promising root move is searched first on its own, to set the bar for the others
+    // ("young brothers wait"). Then the rest are searched in parallel, each in its own copy of the
+    // board. The bar is raised as soon as any thread finds a better move.
+    private int searchRootParallel(SearchContext context, int depth, int[] moves, int count, SearchTrace.Record record)
+    {
+        long firstStart = (record == null) ? 0 : System.nanoTime();
+        long firstNodes = context.nodes;
+        rootScores[0] = searchRootMove(context, moves[0], depth, -INFINITY - 2);
+        if (aborted) return 0;
+        if (record != null) {
+            record.rootMove(moves[0], true, rootScores[0], context.nodes - firstNodes, System.nanoTime() - firstStart);
+        }
+
+        AtomicInteger bar = new AtomicInteger(rootScores[0]);
+        List<RootMoveTask> tasks = new ArrayList<>(count - 1);
+        for (int k = 1; k < count; k++) tasks.add(new RootMoveTask(context.model, moves[k], depth, bar, record != null));
+
+        if (pool == null) pool = new ForkJoinPool(threads);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute()
+            {
+                invokeAll(tasks);
+            }
+        });
+        if (aborted) return 0;
+
+        int bestScore = -INFINITY - 1;
+        int nrTies = 0;
+        for (int k = 0; k < count; k++) {
+            if (k > 0) {
+                RootMoveTask task = tasks.get(k - 1);
+                rootScores[k] = task.score;
+                context.nodes += task.nodes;
+                context.counters.add(task.counters);
+                if (record != null) record.rootMove(moves[k], task.score > task.alpha, task.score, task.nodes, task.nanos);
+            }
+
+            // Scores below the bar of their own search are only upper bounds, but such scores are
+            // always below the final best score, so they cannot be mistaken for a tie.
+            if (rootScores[k] > bestScore) {
+                bestScore = rootScores[k];
+                tiedColumns[0] = moves[k];
+                nrTies = 1;
+            }
+            else if (rootScores[k] == bestScore) tiedColumns[nrTies++] = moves[k];
+        }
+
+        rootScore = bestScore;
+        return breakTie(context.model, nrTies, record);
+    }
+
+    // One root move of the parallel search (never serialized).
+    @SuppressWarnings("serial")
+    private final class RootMoveTask extends RecursiveAction {
+
+        private final Model root;
+        private final int column;
+        private final int depth;
+        private final AtomicInteger bar;
+        private final boolean timed;
+
+        private int score;
+        private int alpha;
+        private long nodes;
+        private long nanos;
+        private final SearchCounters counters = new SearchCounters();
+
+        // The time of the search is only measured if 'timed' (for the trace).
+        RootMoveTask(Model root, int column, int depth, AtomicInteger bar, boolean timed)
+        {
+            this.root = root;
+            this.column = column;
+            this.depth = depth;
+            this.bar = bar;
+            this.timed = timed;
+        }
+
+        @Override
+        protected void compute()
+        {
+            long start = timed ? System.nanoTime() : 0;
+            SearchContext context = workerContext.get();
+            context.model.copyFrom(root);
+            context.ordering.newSearch();
+            context.nodes = 0;
+            context.counters.clear();
+
+            alpha = bar.get() - 1;
+            score = searchRootMove(context, column, depth, alpha);
+            bar.accumulateAndGet(score, Math::max);
+            nodes = context.nodes;
+            counters.add(context.counters);
+            if (timed) nanos = System.nanoTime() - start;
+        }
+    }
+
+    // If several columns share the best score, the one leaving the best position right away is chosen
+    // (like the "Player: Extra_check" search of 'minimax', the last of the equal columns wins).
+    private int breakTie(Model model, int nrTies, SearchTrace.Record record)
+    {
+        if (nrTies == 1) return tiedColumns[0];
+
+        Arrays.sort(tiedColumns, 0, nrTies);
+        int sign = model.getPlayerTurn() == 2 ? 1 : -1;
+        int max = -INFINITY;
+        int column = tiedColumns[0];
+        for (int i = 0; i < nrTies; i++) {
+            model.makeMove(tiedColumns[i]);
+            int value = sign * calculateScore(model);
+            model.removePiece(tiedColumns[i]);
+            if (record != null) record.tieBreak(tiedColumns[i], value);
+
+            if (value >= max) {
+                max = value;
+                column = tiedColumns[i];
+            }
+        }
+        return column;
+    }
+
+    // Follows the best moves stored in the transposition table from the root, starting with the
+    // column chosen, until a win, a full board or a position the table does not have. The moves are
+    // put into 'principalVariation', and their number is returned. The board is left as it was.
+    private int findPrincipalVariation(SearchContext context, int column)
+    {
+        Model model = context.model;
+        int length = 0;
+        int switches = 0;
+        while (column != 0 && length < principalVariation.length && model.isMoveValid(column)) {
+            model.makeMove(column);
+            principalVariation[length++] = column;
+            if (context.detector.isWinningMove(column) || model.boardFull()) break;
+
+            model.switchTurn();
+            switches++;
+            long key = tableKey(model);
+            column = orient(model, key, TranspositionTable.moveOf(table.probe(key)));
+        }
+
+        for (int k = length - 1; k >= 0; k--) {
+            if (k < switches) model.switchTurn();
+            model.removePiece(principalVariation[k]);
+        }
+        return length;
+    }
+
+    // Negamax form of alpha-beta: the score is always from the point of view of the player to move.
+    private int negamax(SearchContext context, int depth, int alpha, int beta, int ply)
+    {
+        Model model = context.model;
+        context.nodes++;
+        if ((context.nodes & TIME_CHECK_INTERVAL) == 0 && System.nanoTime() > deadline) aborted = true;
+        if (aborted) return 0;
+
+        if (depth == 0 || model.boardFull()) {
+            context.counters.leaves++;
+            int score;
+            if (metrics != null && (context.counters.leaves & EngineMetrics.SCORE_SAMPLE_INTERVAL) == 0) {
+                long start = System.nanoTime();
+                score = calculateScore(model);
+                metrics.scoreTime.record(System.nanoTime() - start);
+            }
+            else score = calculateScore(model);
+            if (parityWeight != 0 && Math.abs(score) != INFINITY) score += parityWeight * context.threats.threatBalance(2);
+            return model.getPlayerTurn() == 2 ? score : -score;
+        }
+
+        // With two plies or more to go, the search would find the immediate threats anyway: a win
+        // scores INFINITY, two threats of the opponent lose, and one of them has to be blocked
+        // (any other move, and any move under a threat, loses to the opponent's reply).
+        ThreatAnalysis threats = context.threats;
+        int forced = 0;
+        if (depth >= 2) {
+            threats.analyse();
+            if (threats.getWinningMove() != 0 || threats.getOpponentWinCount() > 1) {
+                context.counters.terminals++;
+                return threats.getWinningMove() != 0 ? INFINITY : -INFINITY;
+            }
+            forced = threats.getForcedMove();
+        }
+
+        // A position searched before at least as deep may already have the answer.
+        int alphaOriginal = alpha;
+        long key = tableKey(model);
+        long entry = table.probe(key);
+        if (entry != 0 && TranspositionTable.depthOf(entry) >= depth) {
+            int score = TranspositionTable.scoreOf(entry);
+            int bound = TranspositionTable.boundOf(entry);
+            if (bound == TranspositionTable.LOWER_BOUND && score > alpha) alpha = score;
+            else if (bound == TranspositionTable.UPPER_BOUND && score < beta) beta = score;
+            if (bound == TranspositionTable.EXACT || alpha >= beta) {
+                context.counters.tableHits++;
+                return score;
+            }
+        }
+
+        MoveOrdering ordering = context.ordering;
+        int[] moves = ordering.getMoves(ply);
+        int count;
+        if (forced != 0) {
+            moves[0] = forced;
+            count = 1;
+        }
+        else {
+            count = ordering.orderMoves(model, ply, orient(model, key, TranspositionTable.moveOf(entry)));
+            if (symmetryPruning) count = dropMirroredMoves(model, moves, count);
+            if (depth >= 2) count = dropMovesUnderThreats(threats, moves, count);
+        }
+        int best = -INFINITY;
+        int bestColumn = 0;
+
+        for (int k = 0; k < count; k++) {
+            int column = moves[k];
+            model.makeMove(column);
+            int score;
+            if (context.detector.isWinningMove(column)) {
+                score = INFINITY;
+                context.counters.terminals++;
+            }
+            else {
+                model.switchTurn();
+                score = -negamax(context, depth - 1, -beta, -alpha, ply + 1);
+                model.switchTurn();
+            }
+            model.removePiece(column);
+            if (aborted) return 0;     // Nothing is stored for an unfinished search.
+
+            if (score > best) {
+                best = score;
+                bestColumn = column;
+                if (best > alpha) alpha = best;
+                if (alpha >= beta) {
+                    ordering.recordCutoff(ply, column, depth);
+                    context.counters.cutoffs++;
+                    break;
+                }
+            }
+        }
+
+        int bound;
+        if (best <= alphaOriginal) bound = TranspositionTable.UPPER_BOUND;
+        else if (best >= beta) bound = TranspositionTable.LOWER_BOUND;
+        else bound = TranspositionTable.EXACT;
+        table.store(key, depth, bound, best, orient(model, key, bestColumn));
+
+        return best;
+    }
+
+    // ===========================================================================================
+    // ==============================  Searching on the opponent's time  =========================
+    // ===========================================================================================
+
+    // If pondering is switched on, starts searching in the background while the opponent, whose
+    // turn it is, thinks about their move: for each of their replies (the one the last search
+    // expects first), the move the AI would answer with, 'depth' plies deep. The model is copied,
+    // so the game goes on as usual. The next 'bestMove' stops the pondering, plays the answer found
+    // if the opponent's move was searched in time, and otherwise still finds its positions in the table.
+    public void startPondering(Model model, int depth)
+    {
+        stopPondering();
+        nrPondered = 0;
+        if (!pondering || depth < 1 || model.boardFull()) return;
+
+        prepareTable(model);
+        if (ponderContext == null) ponderContext = new SearchContext(new Model(model), ordering.newInstance());
+        else ponderContext.model.follow(model);
+        ponderedDepth = depth;
+        deadline = Long.MAX_VALUE;
+        aborted = false;
+
+        ponderThread = new Thread(this::ponder, "ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    // Stops the pondering and waits until its thread has finished. The answers found so far are kept.
+    public void stopPondering()
+    {
+        if (ponderThread == null) return;
+
+        // The search notices the deadline within TIME_CHECK_INTERVAL + 1 nodes.
+        deadline = Long.MIN_VALUE;
+        boolean interrupted = false;
+        while (ponderThread.isAlive()) {
+            try {
+                ponderThread.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        ponderThread = null;
+        deadline = Long.MAX_VALUE;
+        aborted = false;
+    }
+
+    private void ponder()
+    {
+        SearchContext context = ponderContext;
+        Model model = context.model;
+        context.ordering.newSearch();
+        context.nodes = 0;
+        context.counters.clear();
+
+        long key = tableKey(model);
+        int expected = orient(model, key, TranspositionTable.moveOf(table.probe(key)));
+        int count = context.ordering.orderMoves(model, 0, expected);
+        System.arraycopy(context.ordering.getMoves(0), 0, ponderReplies, 0, count);
+
+        for (int k = 0; k < count && !aborted; k++) {
+            int reply = ponderReplies[k];
+            model.makeMove(reply);
+            if (!context.detector.isWinningMove(reply) && !model.boardFull()) {
+                model.switchTurn();
+
+                // Positions the book, the solver or the threats decide are not searched by 'bestMove' either.
+                if (!inBook(model) && !shouldSolve(model) && obviousMove(context) == 0) {
+                    int column = searchRoot(context, ponderedDepth, 0);
+                    if (!aborted) {
+                        ponderedHashes[nrPondered] = model.getHash();
+                        ponderedColumns[nrPondered++] = column;
+                    }
+                }
+                model.switchTurn();
+            }
+            model.removePiece(reply);
+        }
+    }
+
+    private boolean inBook(Model model)
+    {
+        if (ponderedDepth < BOOK_MIN_DEPTH) return false;
+        for (OpeningBook book : books) {
+            if (book.lookup(model) != 0) return true;
+        }
+        return false;
+    }
+
+    // The answer found by the pondering for this position, or 0 if there is none. The answers are
+    // only used once, for the move right after the pondering.
+    private int ponderedMove(Model model, int depth)
+    {
+        int column = 0;
+        if (depth == ponderedDepth) {
+            for (int i = 0; i < nrPondered; i++) {
+                if (ponderedHashes[i] == model.getHash()) column = ponderedColumns[i];
+            }
+        }
+        nrPondered = 0;
+        return column;
+    }
+
+    // ===========================================================================================
+    // ============  The original MinMax search (kept as a reference for the scores).  ===========
+    // ===========================================================================================
 
     public int[] minimax (Model model, int depth, String turn)
     {
+        // The side is only worked out once here; below, it is an int compared at every node.
+        int side;
+        if (turn.equals("AI")) side = AI;
+        else if (turn.equals("Player")) side = PLAYER;
+        else side = EXTRA_CHECK;
+
         // The array 'move' contains data that we will return.
         // move[0] is the score that would be obtained after making this move.
         // move[1] is the number of the column (the move itself),
         // we will actually need it only for the top node to understand which move to make right now.
+        long start = System.nanoTime();
+        minimaxRecord = (trace == null) ? null : trace.begin("minimax", model, depth);
+        minimaxNodes = 0;
+        searchModel.follow(model);
+        long packed = minimax(searchModel, depth, side, 0);
+        long nanos = System.nanoTime() - start;
+        if (metrics != null) metrics.legacyMinimaxTime.record(nanos);
+        if (minimaxRecord != null) {
+            minimaxRecord.end(columnOf(packed), scoreOf(packed), minimaxNodes, nanos);
+            minimaxRecord = null;
+        }
+        return new int[] {scoreOf(packed), columnOf(packed)};
+    }
 
-        int[] move = new int[2];
-
-        move[0] = calculateScore (model);
-        if (depth == 0 || model.boardFull() || Math.abs(move[0]) == INFINITY) return move;
-        if (turn.equals("Player: Extra_check")) return move;
+    // The same search, but nothing is allocated at any node: the score and the column are packed
+    // into one long, and the arrays of each ply are allocated once, together with the NPC.
+    private long minimax (Model model, int depth, int side, int ply)
+    {
+        minimaxNodes++;
+        int score = calculateScore (model);
+        if (depth == 0 || model.boardFull() || Math.abs(score) == INFINITY) return pack(score, 0);
+        if (side == EXTRA_CHECK) return pack(score, 0);
 
-        if (turn.equals("AI")) {
-            int[] maxScore = new int[model.getNrCols()+1];
+        if (side == AI) {
+            int[] maxScore = maxScoreBuffer[ply];
+            int[] sameScoreIndices = sameScoreBuffer[ply];
             maxScore[0] = -INFINITY;
+            for (int i = 1; i <= model.getNrCols(); i++) maxScore[i] = 0;
             int column = 0;
-            int[] sameScoreIndices = new int[model.getNrCols()];
             int nrIndices = 0;
 
             for (int i = 1; i <= model.getNrCols(); i++) {
                 if (model.isMoveValid(i)) {
+                    long moveStart = (ply == 0 && minimaxRecord != null) ? System.nanoTime() : 0;
+                    long moveNodes = minimaxNodes;
                     model.makeMove(i);
                     model.switchTurn();
-                    maxScore[i] = minimax(model, depth-1, "Player")[0];
+                    maxScore[i] = scoreOf(minimax(model, depth-1, PLAYER, ply + 1));
                     model.switchTurn();
+                    if (moveStart != 0) {
+                        minimaxRecord.rootMove(i, true, maxScore[i], minimaxNodes - moveNodes, System.nanoTime() - moveStart);
+                    }
 
                     if (maxScore[i] > maxScore[i-1]) {
                         column = i;
                         sameScoreIndices[0] = column;
                         nrIndices = 1;
-                        for (int k = 1; k < model.getNrCols(); k++) sameScoreIndices[k] = 0;
                     }
                     else if (maxScore[i] == maxScore[i-1]) {
                         sameScoreIndices[nrIndices] = i;
@@ -72,9 +994,10 @@ public final class NPC {
                 for (int i = 0; i < nrIndices; i++) {
                     model.makeMove(sameScoreIndices[i]);
                     model.switchTurn();
-                    int value = minimax(model, depth-1, "Player: Extra_check")[0];
+                    int value = scoreOf(minimax(model, depth-1, EXTRA_CHECK, ply + 1));
                     model.switchTurn();
                     model.removePiece(sameScoreIndices[i]);
+                    if (ply == 0 && minimaxRecord != null) minimaxRecord.tieBreak(sameScoreIndices[i], value);
 
                     if (value >= max) {
                         max = value;
@@ -83,8 +1006,7 @@ public final class NPC {
                 }
             }
 
-            move[0] = maxScore[model.getNrCols()];
-            move[1] = column;
+            return pack(maxScore[model.getNrCols()], column);
         }
 
 
@@ -95,10 +1017,15 @@ public final class NPC {
 
             for (int i = 0; i < model.getNrCols(); i++) {
                 if (model.isMoveValid(i+1)) {
+                    long moveStart = (ply == 0 && minimaxRecord != null) ? System.nanoTime() : 0;
+                    long moveNodes = minimaxNodes;
                     model.makeMove(i+1);
                     model.switchTurn();
-                    int newScore = minimax(model, depth-1, "AI")[0];
+                    int newScore = scoreOf(minimax(model, depth-1, AI, ply + 1));
                     model.switchTurn();
+                    if (moveStart != 0) {
+                        minimaxRecord.rootMove(i + 1, true, newScore, minimaxNodes - moveNodes, System.nanoTime() - moveStart);
+                    }
 
 
                     if (newScore < minScore) {
@@ -111,14 +1038,35 @@ public final class NPC {
                 }
             }
 
-            move[0] = minScore;
-            move[1] = column;
+            return pack(minScore, column);
         }
-        return move;
     }
 
+    private static long pack(int score, int column)
+    {
+        return ((long) score << 32) | (column & 0xFFFFFFFFL);
+    }
 
+    private static int scoreOf(long packed)
+    {
+        return (int) (packed >> 32);
+    }
+
+    private static int columnOf(long packed)
+    {
+        return (int) packed;
+    }
+
+
+    // The heuristic value of the position: positive is good for the AI ('O'), INFINITY is a win.
+    // The model keeps it up to date move by move (see Evaluator), which gives exactly the same
+    // score as scanning the whole board with 'scanScore'.
     public int calculateScore (Model model)
+    {
+        return model.getEvaluator().score();
+    }
+
+    public int scanScore (Model model)
     {
         int rows = model.getNrRows();
         int cols = model.getNrCols();
@@ -0,0 +1,222 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class contains an opening book: the best move of every position in the first few plies of
+ * the game, searched once in advance so that the NPC can answer them instantly.
+ *
+ * A book belongs to one board configuration and is stored in a binary file:
+ *   header - the magic number, the format version, rows, columns, 'X' and the number of entries
+ *            (six 4-byte integers),
+ *   keys   - the canonical hashes of the positions (8 bytes each, sorted),
+ *   moves  - the best column of each position (1 byte each, in the same order).
+ * A position and its mirror image share one entry: the key is the smaller of their two hashes,
+ * and the move is stored for the position the key belongs to (it is mirrored back on lookup).
+ *
+ * The file is memory-mapped and searched in place, so loading a book costs nothing at startup.
+ * Books are generated with
+ *   java OpeningBook [--rows 6] [--cols 7] [--x 4] [--plies 4] [--depth 12] [--threads 1] [--out FILE]
+ *
+ * @author s2013670
+ */
+
+public final class OpeningBook {
+
+    // "C4BK"
+    private static final int MAGIC = 0x4334424B;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 6 * 4;
+
+    public static final int DEFAULT_PLIES = 4;
+    public static final int DEFAULT_DEPTH = 12;
+
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final int cols;
+    private final int x;
+    private final int size;
+
+
+    private OpeningBook(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) throw new IOException("Not an opening book");
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported opening book version: " + buffer.getInt(4));
+
+        this.buffer = buffer;
+        rows = buffer.getInt(8);
+        cols = buffer.getInt(12);
+        x = buffer.getInt(16);
+        size = buffer.getInt(20);
+        if (size < 0 || buffer.capacity() != HEADER_BYTES + 9L * size) throw new IOException("Truncated opening book");
+    }
+
+    // Maps the book into memory (its entries are read from the file only when they are looked up).
+    public static OpeningBook load(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Loads every book found in the directory (files which are not valid books are left out).
+    public static List<OpeningBook> loadAll(File directory)
+    {
+        List<OpeningBook> books = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("OpeningBook-") && name.endsWith(".bin"));
+        if (files == null) return books;
+
+        for (File file : files) {
+            try {
+                books.add(load(file));
+            }
+            catch (IOException e) {
+                // Not a book (or one written by another version of the game).
+            }
+        }
+        return books;
+    }
+
+    // The name under which the book of a board configuration is looked for, e.g. "OpeningBook-6x7-4.bin".
+    public static String fileName(int rows, int cols, int x)
+    {
+        return "OpeningBook-" + rows + "x" + cols + "-" + x + ".bin";
+    }
+
+    // Checking if the book was generated for this board configuration.
+    public boolean fits(Model model)
+    {
+        return model.getNrRows() == rows && model.getNrCols() == cols && model.getPiecesInRow() == x;
+    }
+
+    // The book move of the position, or 0 if the position is not in the book.
+    public int lookup(Model model)
+    {
+        if (!fits(model)) return 0;
+
+        long key = model.getCanonicalHash();
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = buffer.getLong(HEADER_BYTES + 8 * middle);
+            if (middleKey < key) low = middle + 1;
+            else if (middleKey > key) high = middle - 1;
+            else {
+                int column = buffer.get(HEADER_BYTES + 8 * size + middle);
+                if (model.getHash() != key) column = cols + 1 - column;
+                return model.isMoveValid(column) ? column : 0;
+            }
+        }
+        return 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    // ===========================================================================================
+    // ====================================  Book generation  ====================================
+    // ===========================================================================================
+
+    // Searches every position with fewer than 'plies' pieces (up to mirror images) 'depth' plies
+    // deep, or with the solver on boards small enough for it, and writes the book to the file.
+    // Returns the number of positions in the book.
+    public static int generate(File file, int rows, int cols, int x, int plies, int depth, int threads) throws IOException
+    {
+        Model model = new Model();
+        model.setDimensions(rows, cols);
+        model.setX(x);
+
+        NPC npc = new NPC();
+        npc.setThreads(threads);
+        npc.setSolverThreshold(NPC.DEFAULT_SOLVER_THRESHOLD);
+
+        Map<Long, Integer> entries = new TreeMap<>();
+        try {
+            addPositions(model, new WinDetector(model), npc, plies, depth, entries);
+        }
+        finally {
+            npc.shutdown();
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + 9 * entries.size());
+        out.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).putInt(x).putInt(entries.size());
+        for (long key : entries.keySet()) out.putLong(key);
+        for (int column : entries.values()) out.put((byte) column);
+        out.flip();
+
+        // Written next to the book first, so that a book which is being read is never half-written.
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) channel.write(out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return entries.size();
+    }
+
+    // Adds the position on the board and every position which can follow it within the plies left.
+    private static void addPositions(Model model, WinDetector detector, NPC npc, int pliesLeft, int depth,
+                                     Map<Long, Integer> entries)
+    {
+        if (pliesLeft <= 0 || model.boardFull()) return;
+
+        long key = model.getCanonicalHash();
+        if (entries.containsKey(key)) return;
+
+        int column = npc.bestMove(model, depth);
+        entries.put(key, model.getHash() == key ? column : model.getNrCols() + 1 - column);
+
+        for (int move = 1; move <= model.getNrCols(); move++) {
+            if (!model.isMoveValid(move)) continue;
+
+            model.makeMove(move);
+            if (!detector.isWinningMove(move)) {
+                model.switchTurn();
+                addPositions(model, detector, npc, pliesLeft - 1, depth, entries);
+                model.switchTurn();
+            }
+            model.removePiece(move);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int rows = Model.DEFAULT_NR_ROWS;
+        int cols = Model.DEFAULT_NR_COLS;
+        int x = Model.DEFAULT_X;
+        int plies = DEFAULT_PLIES;
+        int depth = DEFAULT_DEPTH;
+        int threads = 1;
+        String out = null;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rows": rows = Integer.parseInt(args[i + 1]); break;
+                case "--cols": cols = Integer.parseInt(args[i + 1]); break;
+                case "--x": x = Integer.parseInt(args[i + 1]); break;
+                case "--plies": plies = Integer.parseInt(args[i + 1]); break;
+                case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--out": out = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0) throw new IllegalArgumentException("Missing value of " + args[args.length - 1]);
+
+        File file = new File(out != null ? out : fileName(rows, cols, x));
+        long start = System.nanoTime();
+        int size = generate(file, rows, cols, x, plies, depth, threads);
+        System.out.printf("%d positions written to %s in %.1f s%n", size, file, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,47 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * This class contains the input of a player (from another source) which is also written into
+ * a file, line by line, so that the game can be replayed later with ScriptedInput.
+ *
+ * Every line is written as soon as it is read, so the recording is complete up to the last line
+ * even if the game is stopped abruptly.
+ *
+ * @author s2013670
+ */
+public final class RecordingInput implements InputSource, Closeable
+{
+	private final InputSource source;
+	private final Writer recording;
+
+	public RecordingInput(InputSource source, File file) throws IOException
+	{
+		this.source = source;
+		this.recording = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public String readLine() throws IOException
+	{
+		String line = source.readLine();
+		if (line != null) {
+			recording.write(line);
+			recording.write('\n');
+			recording.flush();
+		}
+		return line;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		recording.close();
+	}
+}
@@ -0,0 +1,52 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * This class contains input prepared beforehand: the lines of a script, handed over one by one
+ * as the game asks for them (e.g. to replay a game recorded with RecordingInput, for tests).
+ *
+ * The script is kept as it is and only the position of the next line moves along, so replaying
+ * costs no more than cutting the lines out of it, and any number of games can replay the same
+ * script at once (each with a ScriptedInput of its own).
+ *
+ * @author s2013670
+ */
+public final class ScriptedInput implements InputSource
+{
+	private final String script;
+	private int position;
+
+	// The lines of the script are separated by "\n" (or "\r\n").
+	public ScriptedInput(String script)
+	{
+		this.script = script;
+	}
+
+	public static ScriptedInput fromFile(File file) throws IOException
+	{
+		return new ScriptedInput(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public String readLine()
+	{
+		if (position >= script.length()) return null;
+
+		int end = script.indexOf('\n', position);
+		if (end < 0) end = script.length();
+		int next = end + 1;
+		if (end > position && script.charAt(end - 1) == '\r') end--;
+
+		String line = script.substring(position, end);
+		position = next;
+		return line;
+	}
+
+	// Checking if every line of the script has been read.
+	public boolean isFinished()
+	{
+		return position >= script.length();
+	}
+}
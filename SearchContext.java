@@ -0,0 +1,32 @@
+/**
+ * This class contains everything a single thread needs to search a position:
+ * the board it works on, the win detector and threat analysis for that board and the move ordering tables.
+ * The main search works on the NPC's copy of the caller's board, while every thread of the parallel
+ * search has a context of its own with a private copy of the board. A context is kept for any
+ * number of searches and games, as all its tables are sized for the biggest board.
+ *
+ * @author s2013670
+ */
+
+public final class SearchContext {
+
+    public final Model model;
+    public final WinDetector detector;
+    public final ThreatAnalysis threats;
+    public final MoveOrdering ordering;
+
+    // Number of positions visited with this context.
+    public long nodes;
+
+    // What else the search has counted (see SearchCounters).
+    public final SearchCounters counters = new SearchCounters();
+
+
+    public SearchContext(Model model, MoveOrdering ordering)
+    {
+        this.model = model;
+        this.detector = new WinDetector(model);
+        this.threats = new ThreatAnalysis(model, detector);
+        this.ordering = ordering;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * This class contains what a search has counted besides the positions it has visited
+ * (see SearchContext.nodes), for the engine metrics (see EngineMetrics).
+ *
+ * @author s2013670
+ */
+
+public final class SearchCounters {
+
+    // Positions scored by the heuristic (at the end of the search depth, or on a full board).
+    public long leaves;
+
+    // Positions decided without searching any further: a win, or two threats of the opponent.
+    public long terminals;
+
+    // Moves good enough to make the rest of the moves of their position unnecessary (beta cutoffs).
+    public long cutoffs;
+
+    // Positions answered by the transposition table.
+    public long tableHits;
+
+
+    public void clear()
+    {
+        leaves = 0;
+        terminals = 0;
+        cutoffs = 0;
+        tableHits = 0;
+    }
+
+    public void add(SearchCounters other)
+    {
+        leaves += other.leaves;
+        terminals += other.terminals;
+        cutoffs += other.cutoffs;
+        tableHits += other.tableHits;
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class contains a fixed number of threads which search the moves of the AI for many games
+ * at once (see GameServer). However many games ask for a move, no more than 'threads' searches
+ * run at the same time, and the others wait for their turn in the queue. So slow searches only
+ * keep other searches waiting, never the threads talking to the players.
+ *
+ * Every search borrows an NPC from an EnginePool and gives it back when it is done, so there are
+ * no more NPCs than threads, and the transposition table of each is shared by all the games it
+ * searches for (see NPC.bestMove).
+ *
+ * @author s2013670
+ */
+
+public final class SearchPool {
+
+    private final ExecutorService executor;
+    private final EnginePool engines;
+
+
+    // 'tableSizeMb' is the size of the transposition table of each thread. The searches of all the
+    // threads are measured in 'metrics' (null if they are not measured).
+    public SearchPool(int threads, int tableSizeMb, List<OpeningBook> books, EngineMetrics metrics)
+    {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "search-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        engines = new EnginePool(tableSizeMb, books, metrics);
+    }
+
+    // Returns the best move for the player whose turn it is, like NPC.bestMove (the "Expert" level
+    // also uses the solver and symmetry pruning). The caller waits until the move is found, and
+    // the model must not be changed until then (the search works on a copy of it).
+    public int bestMove(Model model, int depth, boolean expert) throws IOException
+    {
+        Future<Integer> move = executor.submit(() -> {
+            NPC npc = engines.acquire();
+            try {
+                npc.setSolverThreshold(expert ? NPC.DEFAULT_SOLVER_THRESHOLD : 0);
+                npc.setSymmetryPruning(expert);
+                return npc.bestMove(model, depth);
+            }
+            finally {
+                engines.release(npc);
+            }
+        });
+        try {
+            return move.get();
+        }
+        catch (InterruptedException e) {
+            // The search cannot be stopped halfway, so it finishes on its own (and nobody
+            // uses the model once the caller has gone).
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the AI to move");
+        }
+        catch (ExecutionException e) {
+            throw new IOException("The AI could not find a move", e.getCause());
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+        engines.shutdown();
+    }
+}
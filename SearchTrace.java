@@ -0,0 +1,182 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class contains a trace of the decisions of the AI: for every search, what each move at the
+ * root scored, how many positions it took and how long, which columns were tied and how the tie was
+ * broken, and the principal variation (the line of best play the search expects).
+ *
+ * Tracing is switched on by giving the trace to an NPC (see NPC.setTrace). Until then, nothing of it
+ * runs at all. The trace is a stream of lines, one record per line, with the fields separated by
+ * spaces. Every search has an ID, so the searches of several NPCs can share one trace:
+ *
+ *   S <id> <search> <rows> <cols> <x> <player> <depth> <hash>    a search starts; the search is
+ *                                                                 alphabeta, minimax, ponder (on the opponent's
+ *                                                                 time), or the move came from the book, threat,
+ *                                                                 solver or pondered (a search while pondering)
+ *   M <id> <column> <bound> <score> <nodes> <nanos>               a move at the root; the bound is '=' for
+ *                                                                 an exact score and '<' for an upper bound
+ *   X <id> <column> <value>                                       a tied column scored again to break the tie
+ *                                                                 (the "Extra_check" of minimax)
+ *   P <id> <column> <column> ...                                  the principal variation (not of minimax)
+ *   E <id> <column> <score> <nodes> <nanos>                       the search ends with the chosen column
+ *                                                                 (0 if it ran out of time)
+ *
+ * The lines of one search are written together when it ends. 'java SearchTrace <file>' sums a trace up.
+ *
+ * @author s2013670
+ */
+
+public final class SearchTrace implements Closeable {
+
+    private final Writer out;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+
+    public SearchTrace(Writer out)
+    {
+        this.out = out;
+    }
+
+    // A trace written into the file (added to its end if it exists).
+    public static SearchTrace open(File file) throws IOException
+    {
+        return new SearchTrace(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE), StandardCharsets.US_ASCII)));
+    }
+
+    // Starts the record of a search of the position.
+    public Record begin(String search, Model model, int depth)
+    {
+        return new Record(nextId.getAndIncrement(), search, model, depth);
+    }
+
+    private synchronized void write(StringBuilder lines)
+    {
+        try {
+            out.append(lines);
+            out.flush();
+        }
+        catch (IOException e) {
+            // A trace is only a help for finding out what the AI did, so the game goes on without it.
+            System.err.println("The search trace could not be written: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        out.close();
+    }
+
+    // The record of one search, kept until the search ends. It is only used by the thread of the search.
+    public final class Record {
+
+        private final long id;
+        private final StringBuilder lines = new StringBuilder(256);
+
+        private Record(long id, String search, Model model, int depth)
+        {
+            this.id = id;
+            lines.append("S ").append(id).append(' ').append(search).append(' ').append(model.getNrRows())
+                    .append(' ').append(model.getNrCols()).append(' ').append(model.getPiecesInRow())
+                    .append(' ').append(model.getPlayerTurn()).append(' ').append(depth)
+                    .append(' ').append(Long.toHexString(model.getHash())).append('\n');
+        }
+
+        public void rootMove(int column, boolean exact, int score, long nodes, long nanos)
+        {
+            lines.append("M ").append(id).append(' ').append(column).append(' ').append(exact ? '=' : '<')
+                    .append(' ').append(score).append(' ').append(nodes).append(' ').append(nanos).append('\n');
+        }
+
+        public void tieBreak(int column, int value)
+        {
+            lines.append("X ").append(id).append(' ').append(column).append(' ').append(value).append('\n');
+        }
+
+        public void principalVariation(int[] moves, int count)
+        {
+            lines.append("P ").append(id);
+            for (int k = 0; k < count; k++) lines.append(' ').append(moves[k]);
+            lines.append('\n');
+        }
+
+        // Ends the search and writes its record into the trace.
+        public void end(int column, int score, long nodes, long nanos)
+        {
+            lines.append("E ").append(id).append(' ').append(column).append(' ').append(score)
+                    .append(' ').append(nodes).append(' ').append(nanos).append('\n');
+            write(lines);
+        }
+    }
+
+    // ===========================================================================================
+    // ===================================  Summing a trace up  ==================================
+    // ===========================================================================================
+
+    // For every kind of search and depth: the number of searches, their positions and time, and how
+    // often a tie had to be broken and the tie-break chose another column than the first tied one.
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 1) {
+            System.out.println("Usage: java SearchTrace <trace file>");
+            return;
+        }
+
+        Map<String, long[]> totals = new TreeMap<>();
+        Map<Long, String> open = new HashMap<>();
+        Map<Long, Integer> firstTied = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(new File(args[0]).toPath(), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length < 2) continue;
+                long id = Long.parseLong(fields[1]);
+                switch (fields[0]) {
+                    case "S":
+                        open.put(id, fields[2] + " depth " + fields[7]);
+                        break;
+                    case "X":
+                        firstTied.putIfAbsent(id, Integer.parseInt(fields[2]));
+                        break;
+                    case "E": {
+                        String key = open.remove(id);
+                        if (key == null) break;
+                        long[] total = totals.computeIfAbsent(key, k -> new long[5]);
+                        total[0]++;
+                        total[1] += Long.parseLong(fields[4]);
+                        total[2] += Long.parseLong(fields[5]);
+                        Integer tied = firstTied.remove(id);
+                        if (tied != null) {
+                            total[3]++;
+                            if (tied != Integer.parseInt(fields[2])) total[4]++;
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+        }
+
+        System.out.printf("%-24s %9s %14s %12s %9s %9s%n", "Search", "searches", "nodes/search", "time/search", "ties", "changed");
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            System.out.printf("%-24s %9d %14d %12s %9d %9d%n", entry.getKey(), total[0], total[1] / total[0],
+                    LatencyHistogram.format(total[2] / total[0]), total[3], total[4]);
+        }
+    }
+}
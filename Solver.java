@@ -0,0 +1,321 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class contains the perfect-play solver used by the NPC on small boards and in endgames.
+ * Unlike the heuristic search, it searches every line to the end of the game, so its scores
+ * and moves are exact rather than estimates.
+ *
+ * Scores follow the usual convention: 0 is a draw, a positive score means that the player to
+ * move wins, and the sooner the win, the bigger the score. A win with the n-th piece of the
+ * board is worth (cells - n + 1) / 2. The exact score is found with a sequence of null-window
+ * searches (the MTD(f) idea: each one only answers "is the score above this value?"), which
+ * cut off much more than a single search with a wide window. All of them share one large
+ * transposition table.
+ *
+ * A position and its mirror image have the same score, so they share one entry of the table,
+ * and while the board is symmetric only one of each pair of mirrored moves is searched.
+ *
+ * 'java Solver' checks the solver against a plain search of every line (no pruning, no table)
+ * on all the positions of a small board with a given number of empty cells.
+ *
+ * @author s2013670
+ */
+
+public final class Solver {
+
+    public static final int DEFAULT_TABLE_MB = 64;
+
+    private final TranspositionTable table;
+
+    // The solver works on its own copy of the board.
+    private final Model board = new Model();
+    private final WinDetector detector = new WinDetector(board);
+    private final ThreatAnalysis threats = new ThreatAnalysis(board, detector);
+
+    // Columns in the order they are tried: the centre first.
+    private final int[] columnOrder = new int[Model.MAX_COLS];
+    private final int[][] moves = new int[MoveOrdering.MAX_PLY][Model.MAX_COLS];
+
+    private int rows;
+    private int cols;
+    private int x;
+    private int cells;
+    private long nodes;
+
+
+    public Solver()
+    {
+        this(DEFAULT_TABLE_MB);
+    }
+
+    public Solver(int tableSizeMb)
+    {
+        table = new TranspositionTable(tableSizeMb);
+    }
+
+
+    public long getNodeCount()
+    {
+        return nodes;
+    }
+
+    // The exact score of the position for the player whose turn it is.
+    public int solve(Model model)
+    {
+        prepare(model);
+        return solveBoard(board.countPieces());
+    }
+
+    // The best move for the player whose turn it is: the quickest win, or else the draw,
+    // or else the move which loses as late as possible.
+    public int bestMove(Model model)
+    {
+        prepare(model);
+        int pieces = board.countPieces();
+
+        int player = board.getPlayerTurn();
+        for (int k = 0; k < cols; k++) {
+            int column = columnOrder[k];
+            if (detector.wouldWin(player, column)) return column;
+        }
+
+        int score = solveBoard(pieces);
+        boolean symmetric = board.isSymmetric();
+        int fallback = 0;
+        for (int k = 0; k < cols; k++) {
+            int column = columnOrder[k];
+            if (!board.isMoveValid(column)) continue;
+            if (fallback == 0) fallback = column;
+            // The mirrored move (tried before this one) did not keep the score, so neither does this one.
+            if (symmetric && column > cols + 1 - column) continue;
+
+            // A null window tells if this move keeps the score of the position.
+            board.makeMove(column);
+            board.switchTurn();
+            int childScore = (pieces + 1 == cells) ? 0 : -negamax(-score, -score + 1, pieces + 1, 1);
+            board.switchTurn();
+            board.removePiece(column);
+
+            if (childScore >= score) return column;
+        }
+        return fallback;
+    }
+
+    private void prepare(Model model)
+    {
+        if (rows != model.getNrRows() || cols != model.getNrCols() || x != model.getPiecesInRow()) {
+            table.clear();
+            rows = model.getNrRows();
+            cols = model.getNrCols();
+            x = model.getPiecesInRow();
+            cells = rows * cols;
+
+            // Sorting the columns by their distance from the centre (the left one first if equal).
+            for (int column = 1; column <= cols; column++) {
+                int k = column - 1;
+                while (k > 0 && Math.abs(2 * columnOrder[k - 1] - cols - 1) > Math.abs(2 * column - cols - 1)) {
+                    columnOrder[k] = columnOrder[k - 1];
+                    k--;
+                }
+                columnOrder[k] = column;
+            }
+        }
+        board.copyFrom(model);
+        nodes = 0;
+    }
+
+    // Narrows the range of possible scores with null-window searches until only one is left.
+    private int solveBoard(int pieces)
+    {
+        if (pieces == cells) return 0;
+
+        int min = -(cells - pieces) / 2;
+        int max = (cells + 1 - pieces) / 2;
+        while (min < max) {
+            int middle = min + (max - min) / 2;
+            // Trying values close to 0 first (draws and late results are the most common).
+            if (middle <= 0 && min / 2 < middle) middle = min / 2;
+            else if (middle >= 0 && max / 2 > middle) middle = max / 2;
+
+            int result = negamax(middle, middle + 1, pieces, 0);
+            if (result <= middle) max = result;
+            else min = result;
+        }
+        return min;
+    }
+
+    // Negamax with alpha-beta (fail-hard). The position has 'pieces' pieces and nobody has won yet.
+    private int negamax(int alpha, int beta, int pieces, int ply)
+    {
+        nodes++;
+        if (pieces == cells) return 0;
+
+        // 1) A win right now is the best possible result.
+        // 2) The cells where the opponent would win. Two of them cannot both be blocked.
+        threats.analyse();
+        if (threats.getWinningMove() != 0) return (cells - pieces + 1) / 2;
+        if (threats.getOpponentWinCount() > 1) return -(cells - pieces) / 2;
+        int forced = threats.getForcedMove();
+
+        // 3) Nobody wins with the next move, so the best possible result is a win two moves later.
+        int max = (cells - pieces - 1) / 2;
+        long key = board.getCanonicalHash();
+        long entry = table.probe(key);
+        if (entry != 0) {
+            int stored = TranspositionTable.scoreOf(entry);
+            int bound = TranspositionTable.boundOf(entry);
+            if (bound == TranspositionTable.EXACT) return Math.max(alpha, Math.min(beta, stored));
+            else if (bound == TranspositionTable.UPPER_BOUND && stored < max) max = stored;
+            else if (bound == TranspositionTable.LOWER_BOUND && stored > alpha) {
+                alpha = stored;
+                if (alpha >= beta) return alpha;
+            }
+        }
+        if (beta > max) {
+            beta = max;
+            if (alpha >= beta) return beta;
+        }
+
+        // 4) The moves to try: only the blocking one if there is a threat. Otherwise all of them,
+        //    except those which let the opponent win on top of the new piece.
+        int[] list = moves[ply];
+        int count = 0;
+        if (forced != 0) list[count++] = forced;
+        else {
+            int hashMove = orient(key, TranspositionTable.moveOf(entry));
+            boolean symmetric = board.isSymmetric();
+            if (hashMove != 0 && board.isMoveValid(hashMove) && !threats.givesWinAbove(hashMove)) list[count++] = hashMove;
+            for (int k = 0; k < cols; k++) {
+                int column = columnOrder[k];
+                if (symmetric && column > cols + 1 - column) continue;
+                if (column != hashMove && board.isMoveValid(column) && !threats.givesWinAbove(column)) list[count++] = column;
+            }
+            // Every move hands the opponent a win with their next piece.
+            if (count == 0) return -(cells - pieces) / 2;
+        }
+
+        int bestColumn = 0;
+        boolean improved = false;
+        for (int k = 0; k < count; k++) {
+            int column = list[k];
+            board.makeMove(column);
+            board.switchTurn();
+            int score = -negamax(-beta, -alpha, pieces + 1, ply + 1);
+            board.switchTurn();
+            board.removePiece(column);
+
+            if (score >= beta) {
+                table.store(key, cells - pieces, TranspositionTable.LOWER_BOUND, score, orient(key, column));
+                return score;
+            }
+            if (score > alpha) {
+                alpha = score;
+                bestColumn = column;
+                improved = true;
+            }
+        }
+
+        if (improved) table.store(key, cells - pieces, TranspositionTable.EXACT, alpha, orient(key, bestColumn));
+        else table.store(key, cells - pieces, TranspositionTable.UPPER_BOUND, alpha, 0);
+        return alpha;
+    }
+
+    // The moves in the table belong to the position whose hash is the key, so the move
+    // of the mirror image is reflected (this works both ways).
+    private int orient(long key, int column)
+    {
+        if (column == 0 || key == board.getHash()) return column;
+        return cols + 1 - column;
+    }
+
+    // ===========================================================================================
+    // ===========================  Checking the solver by brute force  ==========================
+    // ===========================================================================================
+
+    public static void main(String[] args)
+    {
+        int rows = 4;
+        int cols = 4;
+        int x = 4;
+        int empty = 9;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rows": rows = Integer.parseInt(args[i + 1]); break;
+                case "--cols": cols = Integer.parseInt(args[i + 1]); break;
+                case "--x": x = Integer.parseInt(args[i + 1]); break;
+                case "--empty": empty = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.out.println("Usage: java Solver [--rows 4] [--cols 4] [--x 4] [--empty 9]");
+                    return;
+            }
+        }
+
+        Model model = new Model();
+        model.setDimensions(rows, cols);
+        model.setX(x);
+        model.setTurn(1);
+        WinDetector detector = new WinDetector(model);
+        Solver solver = new Solver();
+        int[] result = new int[3];
+        check(model, detector, solver, rows * cols - empty, new HashSet<>(), result);
+
+        System.out.println(rows + "x" + cols + " X=" + x + ", " + empty + " empty cells: " + result[0] + " positions, "
+                + result[1] + " wrong scores, " + result[2] + " wrong moves");
+        if (result[1] != 0 || result[2] != 0) System.exit(1);
+    }
+
+    // Plays every line until 'pieces' pieces are on the board, and compares the solver with the
+    // brute force on each position reached (once). 'result' counts the positions and the mistakes.
+    private static void check(Model model, WinDetector detector, Solver solver, int pieces, Set<Long> seen, int[] result)
+    {
+        if (model.countPieces() == pieces) {
+            if (!seen.add(model.getHash())) return;
+            result[0]++;
+            int exact = bruteForce(model, detector);
+            if (solver.solve(model) != exact) result[1]++;
+
+            int column = solver.bestMove(model);
+            if (!model.isMoveValid(column) || moveScore(model, detector, column) != exact) result[2]++;
+            return;
+        }
+        for (int column = 1; column <= model.getNrCols(); column++) {
+            if (!model.isMoveValid(column)) continue;
+            model.makeMove(column);
+            if (!detector.isWinningMove(column) && !model.boardFull()) {
+                model.switchTurn();
+                check(model, detector, solver, pieces, seen, result);
+                model.switchTurn();
+            }
+            model.removePiece(column);
+        }
+    }
+
+    // The exact score of the position, found by searching every line to the end.
+    private static int bruteForce(Model model, WinDetector detector)
+    {
+        int best = -Integer.MAX_VALUE;
+        for (int column = 1; column <= model.getNrCols(); column++) {
+            if (model.isMoveValid(column)) best = Math.max(best, moveScore(model, detector, column));
+        }
+        return best;
+    }
+
+    // The exact score of the move for the player whose turn it is.
+    private static int moveScore(Model model, WinDetector detector, int column)
+    {
+        int cells = model.getNrRows() * model.getNrCols();
+        int pieces = model.countPieces();
+        model.makeMove(column);
+        int score;
+        if (detector.isWinningMove(column)) score = (cells - pieces + 1) / 2;
+        else if (model.boardFull()) score = 0;
+        else {
+            model.switchTurn();
+            score = -bruteForce(model, detector);
+            model.switchTurn();
+        }
+        model.removePiece(column);
+        return score;
+    }
+}
@@ -0,0 +1,43 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class contains the input of a player who types it in: the terminal (see 'stdin') or
+ * a connection to the game server. The stream is read through a buffer, a line at a time.
+ *
+ * @author s2013670
+ */
+public final class StreamInput implements InputSource
+{
+	// Only one reader may take lines from the terminal, otherwise each would keep some of them in its buffer.
+	private static StreamInput stdin;
+
+	private final BufferedReader reader;
+
+	public StreamInput(InputStream in)
+	{
+		this(in, StandardCharsets.UTF_8);
+	}
+
+	public StreamInput(InputStream in, Charset charset)
+	{
+		reader = new BufferedReader(new InputStreamReader(in, charset));
+	}
+
+	// The input of the terminal (in the encoding of the terminal).
+	public static synchronized StreamInput stdin()
+	{
+		if (stdin == null) stdin = new StreamInput(System.in, Charset.defaultCharset());
+		return stdin;
+	}
+
+	@Override
+	public String readLine() throws IOException
+	{
+		return reader.readLine();
+	}
+}
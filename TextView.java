@@ -1,145 +1,209 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+
 /**
  * This class contains all the messages that may be displayed on the screen during the game.
+ * By default it talks to the terminal; a view can also be given the input and output of its
+ * own player (e.g. a connection to the game server, see GameServer, or a recorded game, see
+ * InputSource).
  *
  * @author s2013670
  */
 public final class TextView
 {
+	private final InputSource in;
+	private final PrintStream out;
+	private final BoardRenderer renderer;
+
 	public TextView()
 	{
-	
+		this(StreamInput.stdin(), System.out);
+	}
+
+	public TextView(InputSource in, PrintStream out)
+	{
+		this(in, out, false);
+	}
+
+	// In ANSI mode, the board stays at the top of the screen and only the cells which change are redrawn.
+	public TextView(InputSource in, PrintStream out, boolean ansi)
+	{
+		this.in = in;
+		this.out = out;
+		this.renderer = new BoardRenderer(out, ansi);
 	}
 
 	public final void displayGreeting()
 	{
-		System.out.println("\n---------------------- HELLO! ----------------------\n");
+		out.println("\n---------------------- HELLO! ----------------------\n");
 	}
 
-	public final char askNewOrResume()
+	public final char askNewOrResume() throws IOException
 	{
-		System.out.print("Please input \"R\" to resume your last game or \"N\" to start a new one: ");
-		return InputUtil.readCharFromUser();
+		out.print("Please input \"R\" to resume your last game or \"N\" to start a new one: ");
+		return readChar();
 	}
 
 	public final void displayNewGameMessage()
 	{
-		System.out.println("\n----------------- NEW GAME STARTED -----------------\n");
-		System.out.println("Please input the desired number of rows and columns.");
+		out.println("\n----------------- NEW GAME STARTED -----------------\n");
+		out.println("Please input the desired number of rows and columns.");
+	}
+
+	public final void displayNoSavedGame()
+	{
+		out.println("You have finished your last game.\n");
 	}
 
 	public final void displayGameLoaded()
 	{
-		System.out.println("\n----------------- LAST GAME LOADED -----------------\n");
+		out.println("\n----------------- LAST GAME LOADED -----------------\n");
 	}
 
-	public final int askForNumberOfPlayers()
+	public final int askForNumberOfPlayers() throws IOException
 	{
-		System.out.print("\nPlease input the number of players (1 or 2): ");
-		return InputUtil.readIntFromUser();
+		out.print("\nPlease input the number of players (1 or 2): ");
+		return readInt();
 	}
 
-	public final int askForDifficulty()
+	public final int askForDifficulty() throws IOException
 	{
-		System.out.println("\nPlease select the level of difficulty (from 1 to 3).");
-		System.out.println("1: Easy.\n2: Medium.\n3: Hard");
-		System.out.print("Difficulty: ");
-		return InputUtil.readIntFromUser();
+		out.println("\nPlease select the level of difficulty (from 1 to 4).");
+		out.println("1: Easy.\n2: Medium.\n3: Hard\n4: Expert (perfect play on small boards and in the endgame)");
+		out.print("Difficulty: ");
+		return readInt();
 	}
 
-	public final int askForRows()
+	public final int askForRows() throws IOException
 	{
-		System.out.print("Rows (min - " + Model.MIN_ROWS + ", max - " + Model.MAX_ROWS + "): ");
-		return InputUtil.readIntFromUser();
+		out.print("Rows (min - " + Model.MIN_ROWS + ", max - " + Model.MAX_ROWS + "): ");
+		return readInt();
 	}
 
-	public final int askForColumns()
+	public final int askForColumns() throws IOException
 	{
-		System.out.print("Columns (min - " + Model.MIN_COLS + ", max - " + Model.MAX_COLS + "): ");
-		return InputUtil.readIntFromUser();
+		out.print("Columns (min - " + Model.MIN_COLS + ", max - " + Model.MAX_COLS + "): ");
+		return readInt();
 	}
 
 	// Asking for how many pieces in a row (X) are needed to win.
-	public final int askForX (Model model)
+	public final int askForX (Model model) throws IOException
 	{
-		System.out.print("\nPlease input how many pieces in a row are needed to win ");
-		System.out.print("(min - " + Model.MIN_COLS + ", max - " + Math.max(model.getNrCols(), model.getNrRows()) + "): ");
-		return InputUtil.readIntFromUser();
+		out.print("\nPlease input how many pieces in a row are needed to win ");
+		out.print("(min - " + Model.MIN_COLS + ", max - " + Math.max(model.getNrCols(), model.getNrRows()) + "): ");
+		return readInt();
 	}
 
 	public final void displayInstructions (Model model)
 	{
-		System.out.println("\nTo make your move, please input a value from 1 to " + model.getNrCols() + ".");
-		System.out.println("To concede, please input 0 (zero).\n");
+		out.println("\nTo make your move, please input a value from 1 to " + model.getNrCols() + ".");
+		out.println("To concede, please input 0 (zero).\n");
 	}
 
-	public final int askForMove(Model model)
+	public final int askForMove(Model model) throws IOException
 	{
-		System.out.print("Player " + model.getPlayerTurn() + ", please select a free column: ");
-		return InputUtil.readIntFromUser();
+		out.print("Player " + model.getPlayerTurn() + ", please select a free column: ");
+		return readInt();
 	}
 
 	public final void displayAIMove (int move)
 	{
-		System.out.printf("AI has made its move: %d\n", move);
+		out.printf("AI has made its move: %d\n", move);
 	}
 	
 	public final void displayBoard(Model model)
 	{
-		int nrRows = model.getNrRows();
-		int nrCols = model.getNrCols();
-
-		String rowDivider = ("|" + "-".repeat(5)).repeat(nrCols) + "|";
-		
-		// A StringBuilder is used to assemble longer Strings more efficiently.
-		StringBuilder sb = new StringBuilder();
-
-
-		sb.append(rowDivider + "\n");
-		for (int i = 0; i < nrRows; i++){
-			for (int j = 0; j < nrCols; j++){
-				char board = model.getBoard(i, j);
-				sb.append("|  " + board + "  ");
-			}
-			sb.append("|\n");
-			sb.append(rowDivider + "\n");
-		}
-		sb.append("|" + "-".repeat(6 * nrCols - 1) + "|\n");
-		for (int i = 0; i < nrCols; i++) {
-			if (i < 9) sb.append("|  " + (i+1) + "  ");
-			else sb.append("|  " + (i+1) + " ");
-		}
-		sb.append("|\n");
-		sb.append("|" + "=".repeat(6 * nrCols - 1) + "|\n");
-		
-		// Then print out the assembled String.
-		System.out.println(sb);
+		renderer.render(model);
 	}
 
 	public final void displayWinner(Model model, int players)
 	{
-		System.out.println("\n" + "#".repeat(6 * model.getNrCols() + 1));
-		if (players == 2) System.out.println("Player " + model.getPlayerTurn() + " wins. Congratulations!\n");
+		out.println("\n" + "#".repeat(6 * model.getNrCols() + 1));
+		if (players == 2) out.println("Player " + model.getPlayerTurn() + " wins. Congratulations!\n");
 		else {
-			if (model.getPlayerTurn() == 1) System.out.println("You won! Congratulations!\n");
-			else System.out.println("You lost. Better luck next time!\n");
+			if (model.getPlayerTurn() == 1) out.println("You won! Congratulations!\n");
+			else out.println("You lost. Better luck next time!\n");
 		}
 	}
 
 	public final void displayGameEndMessage()
 	{
-		System.out.println("-------------------- GAME OVER! --------------------\n\n");
+		out.println("-------------------- GAME OVER! --------------------\n\n");
 	}
 
 	public final void displayGoodbye()
 	{
-		System.out.println("Thanks for playing! \nSee you later!\n");
+		renderer.release();
+		out.println("Thanks for playing! \nSee you later!\n");
+		out.flush();
 	}
 
-	public final String newGameOffer()
+	public final String newGameOffer() throws IOException
 	{
-		System.out.print("Would you like to start a new game? Please input \"yes\" or \"no\": ");
-		return InputUtil.readStringFromUser();
+		out.print("Would you like to start a new game? Please input \"yes\" or \"no\": ");
+		return readString();
 	}
 
+	// Only used by the game server: the ID under which the player's game is saved.
+	public final long askForGameId() throws IOException
+	{
+		out.print("Please input the ID of your game, or 0 (zero) to start with a new ID: ");
+		while (true) {
+			String input = readString().trim();
+			try {
+				return Long.parseLong(input);
+			}
+			catch (NumberFormatException e) {
+				out.print("Please enter an integer: ");
+			}
+		}
+	}
+
+	public final void displayGameId(long gameId)
+	{
+		out.println("Your game ID is " + gameId + ". Please input it next time to resume the game.\n");
+	}
+
+	// ===========================================================================================
+	// ==============================  Reading the player's input  ==============================
+	// ===========================================================================================
+
+	// The lines are checked in the same way whatever their source: an integer is the first word
+	// of a line (empty lines are skipped), and a character is a line of a single character.
+	// The end of the input (e.g. the player has disconnected) ends the game with an EOFException.
+
+	private int readInt() throws IOException
+	{
+		while (true) {
+			String line = readString().trim();
+			if (line.isEmpty()) continue;
+
+			int end = 0;
+			while (end < line.length() && !Character.isWhitespace(line.charAt(end))) end++;
+			try {
+				return Integer.parseInt(line.substring(0, end));
+			}
+			catch (NumberFormatException e) {
+				out.print("Please enter an integer: ");
+			}
+		}
+	}
+
+	private char readChar() throws IOException
+	{
+		while (true) {
+			String input = readString();
+			if (input.length() == 1) return input.charAt(0);
+			out.print("Please enter a single character: ");
+		}
+	}
 
+	private String readString() throws IOException
+	{
+		out.flush();
+		String line = in.readLine();
+		if (line == null) throw new EOFException("The input has ended");
+		return line;
+	}
 }
@@ -0,0 +1,115 @@
+/**
+ * This class contains a quick look at the threats on the board, made before (or instead of) a search:
+ * the cells where either player would complete X in a row.
+ *
+ * For the player to move, it finds
+ *   - a move which wins right away,
+ *   - the opponent's immediate wins: one of them has to be blocked (a forced move),
+ *     and two of them cannot both be blocked,
+ *   - the moves which play under an opponent threat, letting the opponent win on top of them.
+ * It also counts the threats which are not playable yet, by the parity of their row. The first
+ * player usually profits from threats on odd rows (counted from the bottom, starting at 1) and
+ * the second player from threats on even rows, because at the end of the game the columns fill
+ * up in turn and each player is left with the cells of their own parity.
+ *
+ * The analysis only reads the board, so a single instance can be reused for every position.
+ *
+ * @author s2013670
+ */
+
+public final class ThreatAnalysis {
+
+    private final Model model;
+    private final WinDetector detector;
+
+    // Results of the last 'analyse()'.
+    private int winningMove;
+    private int forcedMove;
+    private int opponentWins;
+
+
+    public ThreatAnalysis(Model model, WinDetector detector)
+    {
+        this.model = model;
+        this.detector = detector;
+    }
+
+    // Looks for the immediate wins of both players, from the point of view of the player to move.
+    // The opponent's wins are not looked for once the player has a win of their own, and the
+    // search stops at the second one (which is enough to know the game is lost).
+    public void analyse()
+    {
+        int player = model.getPlayerTurn();
+        int opponent = 3 - player;
+        int nrCols = model.getNrCols();
+
+        winningMove = 0;
+        forcedMove = 0;
+        opponentWins = 0;
+
+        for (int column = 1; column <= nrCols; column++) {
+            if (detector.wouldWin(player, column)) {
+                winningMove = column;
+                return;
+            }
+        }
+        for (int column = 1; column <= nrCols && opponentWins < 2; column++) {
+            if (detector.wouldWin(opponent, column)) {
+                if (opponentWins == 0) forcedMove = column;
+                opponentWins++;
+            }
+        }
+    }
+
+    // A column which wins the game right away, or 0 if there is none.
+    public int getWinningMove()
+    {
+        return winningMove;
+    }
+
+    // The column which has to be played to stop the opponent from winning with their next move
+    // (0 if the opponent has no such move, or more than one of them).
+    public int getForcedMove()
+    {
+        return opponentWins == 1 ? forcedMove : 0;
+    }
+
+    // The number of columns in which the opponent would win with their next move (counted up to 2).
+    public int getOpponentWinCount()
+    {
+        return opponentWins;
+    }
+
+    // Checking if, after the player to move drops a piece into the column, the opponent could win on
+    // top of it. The new piece is not part of any of the opponent's lines, so the move is not made.
+    public boolean givesWinAbove(int column)
+    {
+        int height = model.getColHeight(column);
+        if (height + 1 >= model.getNrRows()) return false;
+        return detector.wouldWinAt(3 - model.getPlayerTurn(), (column - 1) * model.getColStride() + height + 1);
+    }
+
+    // Number of the player's threats on empty cells of odd rows (or of even rows) which cannot be
+    // played yet. These are what the endgame is decided by once the board fills up.
+    public int countThreats(int player, boolean oddRows)
+    {
+        int stride = model.getColStride();
+        int threats = 0;
+        for (int column = 1; column <= model.getNrCols(); column++) {
+            // The cell right above the pieces can be played now, so the count starts one cell higher.
+            for (int row = model.getColHeight(column) + 1; row < model.getNrRows(); row++) {
+                // 'row' counts from 0, so odd rows (counted from 1) have an even index.
+                if ((row % 2 == 0) == oddRows && detector.wouldWinAt(player, (column - 1) * stride + row)) threats++;
+            }
+        }
+        return threats;
+    }
+
+    // How much the parity of the threats favours the player: the threats on the player's
+    // own rows (odd for the first player, even for the second) minus those of the opponent.
+    public int threatBalance(int player)
+    {
+        int opponent = 3 - player;
+        return countThreats(player, player == 1) - countThreats(opponent, opponent == 1);
+    }
+}
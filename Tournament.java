@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class lets two AI variants (see AIPlayer) play many games against each other,
+ * without any user input, and reports how well and how fast each of them played.
+ *
+ * Usage: java Tournament [options]
+ *   --games <n>         number of games (default 1000)
+ *   --rows <n>          board size and X (default 6 x 7, X = 4)
+ *   --cols <n>
+ *   --x <n>
+ *   --a <variant>       the two AI variants (default "alphabeta:4" against "minimax:4")
+ *   --b <variant>
+ *   --parallel <n>      games played at the same time (default: number of processors)
+ *   --random-plies <n>  random moves at the start of each game, so that games differ (default 2)
+ *   --seed <n>          seed of the random moves (default 1)
+ *
+ * The variants take turns to start. The report contains the win rates, the number of positions
+ * searched per second and a histogram of the time taken by each move.
+ *
+ * @author s2013670
+ */
+public final class Tournament
+{
+	private int games = 1000;
+	private int rows = Model.DEFAULT_NR_ROWS;
+	private int cols = Model.DEFAULT_NR_COLS;
+	private int x = Model.DEFAULT_X;
+	private String variantA = "alphabeta:4";
+	private String variantB = "minimax:4";
+	private int parallel = Runtime.getRuntime().availableProcessors();
+	private int randomPlies = 2;
+	private long seed = 1;
+
+	// Results, shared by all the threads.
+	private final AtomicLong[] wins = { new AtomicLong(), new AtomicLong() };
+	private final AtomicLong[] winsAsFirst = { new AtomicLong(), new AtomicLong() };
+	private final AtomicLong draws = new AtomicLong();
+	private final AtomicLong[] nodes = { new AtomicLong(), new AtomicLong() };
+	private final AtomicLong[] searchNanos = { new AtomicLong(), new AtomicLong() };
+	private final AtomicLong[] invalidMoves = { new AtomicLong(), new AtomicLong() };
+	private final LatencyHistogram[] latency = { new LatencyHistogram(), new LatencyHistogram() };
+
+	// Each thread keeps its own pair of AIs (with their tables) for all of its games.
+	private final List<AIPlayer> createdPlayers = new ArrayList<>();
+	private final ThreadLocal<AIPlayer[]> players = ThreadLocal.withInitial(this::createPlayers);
+
+	public static void main(String[] args) throws Exception
+	{
+		Tournament tournament = new Tournament();
+		try {
+			tournament.parseArguments(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println("Usage: java Tournament [--games n] [--rows n] [--cols n] [--x n] [--a variant] [--b variant]"
+					+ " [--parallel n] [--random-plies n] [--seed n]");
+			return;
+		}
+		tournament.run();
+	}
+
+	private void parseArguments(String[] args)
+	{
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 == args.length) throw new IllegalArgumentException("Missing value of " + args[i]);
+			String value = args[++i];
+			switch (args[i - 1]) {
+				case "--games": games = Integer.parseInt(value); break;
+				case "--rows": rows = Integer.parseInt(value); break;
+				case "--cols": cols = Integer.parseInt(value); break;
+				case "--x": x = Integer.parseInt(value); break;
+				case "--a": variantA = value; break;
+				case "--b": variantB = value; break;
+				case "--parallel": parallel = Integer.parseInt(value); break;
+				case "--random-plies": randomPlies = Integer.parseInt(value); break;
+				case "--seed": seed = Long.parseLong(value); break;
+				default: throw new IllegalArgumentException("Unknown option: " + args[i - 1]);
+			}
+		}
+
+		// The same rules as for a game started in the terminal.
+		Model rules = new Model();
+		if (!rules.rowsValid(rows) || !rules.colsValid(cols)) throw new IllegalArgumentException("Invalid board size.");
+		rules.setDimensions(rows, cols);
+		if (!rules.isXValid(x)) throw new IllegalArgumentException("Invalid X.");
+
+		// Checking both variants before any game is started.
+		AIPlayer.parse(variantA).shutdown();
+		AIPlayer.parse(variantB).shutdown();
+	}
+
+	private AIPlayer[] createPlayers()
+	{
+		AIPlayer[] pair = { AIPlayer.parse(variantA), AIPlayer.parse(variantB) };
+		synchronized (createdPlayers) {
+			createdPlayers.add(pair[0]);
+			createdPlayers.add(pair[1]);
+		}
+		return pair;
+	}
+
+	private void run() throws Exception
+	{
+		System.out.println("Playing " + games + " games on a " + rows + "x" + cols + " board, X = " + x
+				+ " (" + randomPlies + " random moves first, " + parallel + " games at a time).");
+		System.out.println("A: " + variantA + "\nB: " + variantB + "\n");
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(parallel);
+		List<Future<?>> results = new ArrayList<>();
+		for (int g = 0; g < games; g++) {
+			int game = g;
+			results.add(executor.submit(() -> playGame(game)));
+		}
+		for (Future<?> result : results) result.get();
+		executor.shutdown();
+		long elapsed = System.nanoTime() - start;
+
+		for (AIPlayer player : createdPlayers) player.shutdown();
+		report(elapsed);
+	}
+
+	// Plays one game. Variant A starts the even games, variant B the odd ones.
+	private void playGame(int game)
+	{
+		AIPlayer[] pair = players.get();
+		Random random = new Random(seed * 1000003 + game);
+		HeadlessGame headless = new HeadlessGame(rows, cols, x);
+		Model model = headless.getModel();
+		int first = game % 2;
+
+		for (int ply = 0; ply < randomPlies && !headless.isOver(); ply++) {
+			int column;
+			do column = 1 + random.nextInt(cols);
+			while (!model.isMoveValid(column));
+			headless.play(column);
+		}
+
+		while (!headless.isOver()) {
+			// Player 1 is the variant starting this game.
+			int engine = (headless.getPlayerTurn() == 1) ? first : 1 - first;
+
+			long moveStart = System.nanoTime();
+			int column = pair[engine].chooseMove(model);
+			long moveNanos = System.nanoTime() - moveStart;
+
+			latency[engine].record(moveNanos);
+			searchNanos[engine].addAndGet(moveNanos);
+			nodes[engine].addAndGet(pair[engine].getLastNodes());
+
+			if (column == 0 || !model.isMoveValid(column)) {
+				// An AI which has no idea what to do plays the first free column.
+				invalidMoves[engine].incrementAndGet();
+				column = 1;
+				while (!model.isMoveValid(column)) column++;
+			}
+			headless.play(column);
+		}
+
+		if (headless.getWinner() == 0) draws.incrementAndGet();
+		else {
+			int winner = (headless.getWinner() == 1) ? first : 1 - first;
+			wins[winner].incrementAndGet();
+			if (headless.getWinner() == 1) winsAsFirst[winner].incrementAndGet();
+		}
+	}
+
+	private void report(long elapsedNanos)
+	{
+		System.out.printf("Finished in %s.%n%n", LatencyHistogram.format(elapsedNanos));
+		String[] labels = { "A", "B" };
+		String[] variants = { variantA, variantB };
+
+		for (int e = 0; e < 2; e++) {
+			System.out.printf("%s (%s): %d wins (%.1f%%), %d of them as the first player%n", labels[e], variants[e],
+					wins[e].get(), 100.0 * wins[e].get() / games, winsAsFirst[e].get());
+		}
+		System.out.printf("Draws: %d (%.1f%%)%n%n", draws.get(), 100.0 * draws.get() / games);
+
+		for (int e = 0; e < 2; e++) {
+			System.out.printf("%s (%s): %d moves", labels[e], variants[e], latency[e].getCount());
+			if (nodes[e].get() > 0) System.out.printf(", %.0f nodes/s", nodes[e].get() * 1e9 / Math.max(1, searchNanos[e].get()));
+			else System.out.print(", nodes are not counted by this search");
+			if (invalidMoves[e].get() > 0) System.out.print(", " + invalidMoves[e].get() + " moves replaced (no valid column returned)");
+			System.out.println();
+			System.out.println("  Time per move:");
+			latency[e].print(System.out, "    ");
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class contains the transposition table of the NPC.
+ * Positions which can be reached by different orders of moves are only searched once:
+ * the result of the search is stored under the Zobrist hash of the position (see Model).
+ *
+ * The table has a fixed size (given in megabytes) and is made of two primitive arrays.
+ * Every bucket has two slots: the first one keeps the deepest search seen for the bucket
+ * (depth-preferred), the second one is always replaced by the newest entry.
+ *
+ * The table can be shared by several threads without locks: every slot stores the hash
+ * XOR-ed with the entry, so a slot torn by two threads writing at once simply does not match.
+ *
+ * @author s2013670
+ */
+
+public final class TranspositionTable {
+
+    // The type of the stored score.
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;    // The real score is at least this big (a cut-off happened).
+    public static final int UPPER_BOUND = 2;    // The real score is at most this big (no move raised alpha).
+
+    // Each slot takes two longs (16 bytes): the hash of the position and the packed entry.
+    private static final int BYTES_PER_SLOT = 16;
+
+    // The most buckets a table can have: their slots still fit into one Java array (8 GB per array).
+    private static final int MAX_BUCKETS = 1 << 29;
+
+    // Layout of the packed entry: score (bits 0-31), depth (32-39), bound (40-41), best move (42-49).
+    // The top bit marks a used slot, so an empty slot is simply 0.
+    private static final long USED = 1L << 63;
+
+    private final long[] keys;
+    private final long[] entries;
+    private final int bucketMask;
+
+    // Counters which do not slow down the threads of the parallel search.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+
+    public TranspositionTable(int sizeMb)
+    {
+        long slots = Math.max(2, (long) sizeMb * 1024 * 1024 / BYTES_PER_SLOT);
+        int buckets = Integer.highestOneBit((int) Math.min(slots / 2, MAX_BUCKETS));
+
+        keys = new long[2 * buckets];
+        entries = new long[2 * buckets];
+        bucketMask = buckets - 1;
+    }
+
+
+    // Returns the packed entry stored for the position, or 0 if there is none.
+    public long probe(long hash)
+    {
+        int slot = ((int) hash & bucketMask) << 1;
+        for (int i = slot; i <= slot + 1; i++) {
+            long entry = entries[i];
+            if (entry != 0 && (keys[i] ^ entry) == hash) {
+                hits.increment();
+                return entry;
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    public void store(long hash, int depth, int bound, int score, int move)
+    {
+        long entry = USED | ((long) move << 42) | ((long) bound << 40) | ((long) depth << 32) | (score & 0xFFFFFFFFL);
+
+        // The depth-preferred slot is only taken over by a search which is at least as deep.
+        int slot = ((int) hash & bucketMask) << 1;
+        long old = entries[slot];
+        if (old == 0 || (keys[slot] ^ old) == hash || depth >= depthOf(old)) {
+            keys[slot] = hash ^ entry;
+            entries[slot] = entry;
+        }
+        else {
+            keys[slot + 1] = hash ^ entry;
+            entries[slot + 1] = entry;
+        }
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < entries.length; i++) {
+            keys[i] = 0;
+            entries[i] = 0;
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    // ===========================================================================================
+    // =====================  Reading the fields of a packed entry.  =============================
+    // ===========================================================================================
+
+    public static int scoreOf(long entry)
+    {
+        return (int) entry;
+    }
+
+    public static int depthOf(long entry)
+    {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    public static int boundOf(long entry)
+    {
+        return (int) (entry >>> 40) & 0x3;
+    }
+
+    public static int moveOf(long entry)
+    {
+        return (int) (entry >>> 42) & 0xFF;
+    }
+
+    // ===========================================================================================
+    // ==========================  Statistics of the table.  =====================================
+    // ===========================================================================================
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    // Number of slots (two per bucket).
+    public int getCapacity()
+    {
+        return entries.length;
+    }
+}
@@ -1,5 +1,7 @@
 /**
  * This class contains the method of automatic game win detection.
+ * Nothing but the model and the metrics is kept between the calls, so several threads may use
+ * the same detector at once, as long as none of them changes the board meanwhile.
  *
  * @author s2013670
  */
@@ -15,19 +17,37 @@ public final class WinDetector
     }
 
 
-    private int nrRows;
-    private int nrCols;
-    private int x;
-    private char[][] board;
+    // Where the win checks and full scans are timed (null when they are not, see EngineMetrics).
+    private EngineMetrics metrics;
+
+    public void setMetrics(EngineMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+
+    // The copy of the board scanned by 'isGameWon', one for each thread, big enough for any board.
+    private static final ThreadLocal<char[][]> SCAN_BOARD =
+            ThreadLocal.withInitial(() -> new char[Model.MAX_ROWS][Model.MAX_COLS]);
 
     public boolean isGameWon()
     {
-        nrRows = model.getNrRows();
-        nrCols = model.getNrCols();
-        x = model.getPiecesInRow();
+        if (metrics == null) return scanBoard();
 
+        long start = System.nanoTime();
+        boolean won = scanBoard();
+        metrics.gameWonTime.record(System.nanoTime() - start);
+        return won;
+    }
 
-        board = new char[nrRows][nrCols];
+    private boolean scanBoard()
+    {
+        int nrRows = model.getNrRows();
+        int nrCols = model.getNrCols();
+        int x = model.getPiecesInRow();
+
+
+        char[][] board = SCAN_BOARD.get();
         for (int i = 0; i < nrRows; i++){
             for (int j = 0; j < nrCols; j++){
                 board[i][j] = model.getBoard(i, j);
@@ -36,17 +56,80 @@ public final class WinDetector
 
         for (int i = 0; i < nrRows; i++) {
             for (int j = 0; j < nrCols; j++) {
-                if ((board[i][j] == 'X' || board[i][j] == 'O') && checkAllDirections(i, j)) return true;
+                if ((board[i][j] == 'X' || board[i][j] == 'O') && checkAllDirections(board, nrRows, nrCols, x, i, j)) return true;
             }
         }
 
         return false;
     }
 
-    public boolean checkAllDirections(int row, int col)
+    // Checking only the four lines through the piece that has just been dropped into 'column'.
+    // Nothing is copied, so this is much cheaper than 'isGameWon()' which scans the whole board
+    // (that full scan is still needed for boards which have been loaded with 'Model.setBoard').
+    public boolean isWinningMove(int column)
+    {
+        if (metrics == null) return checkLines(column);
+
+        long start = System.nanoTime();
+        boolean won = checkLines(column);
+        metrics.winningMoveTime.record(System.nanoTime() - start);
+        return won;
+    }
+
+    private boolean checkLines(int column)
+    {
+        int height = model.getColHeight(column);
+        if (height == 0) return false;
+
+        int stride = model.getColStride();
+        int bit = (column - 1) * stride + height - 1;
+        int player = model.hasPiece(1, bit) ? 1 : 2;
+        int limit = model.getNrCols() * stride;
+        int needed = model.getPiecesInRow();
+
+        // In the bitboard, neighbours are 1 bit away vertically, 'stride' bits away horizontally,
+        // and 'stride + 1' or 'stride - 1' bits away along the diagonals.
+        return countInLine(player, bit, 1, limit) >= needed
+                || countInLine(player, bit, stride, limit) >= needed
+                || countInLine(player, bit, stride + 1, limit) >= needed
+                || countInLine(player, bit, stride - 1, limit) >= needed;
+    }
+
+    // Checking if the player would win by dropping a piece into 'column' (the move is not made).
+    public boolean wouldWin(int player, int column)
+    {
+        int height = model.getColHeight(column);
+        if (height == model.getNrRows()) return false;
+        return wouldWinAt(player, (column - 1) * model.getColStride() + height);
+    }
+
+    // Checking if a piece of the player on the (empty) 'bit' would complete X in a row.
+    public boolean wouldWinAt(int player, int bit)
+    {
+        int stride = model.getColStride();
+        int limit = model.getNrCols() * stride;
+        int needed = model.getPiecesInRow();
+
+        return countInLine(player, bit, 1, limit) >= needed
+                || countInLine(player, bit, stride, limit) >= needed
+                || countInLine(player, bit, stride + 1, limit) >= needed
+                || countInLine(player, bit, stride - 1, limit) >= needed;
+    }
+
+    // Counting the player's pieces in a row through 'bit' in both directions of a line.
+    // Lines stop at the always-empty sentinel bits, so they never run over into another column.
+    private int countInLine(int player, int bit, int step, int limit)
+    {
+        int count = 1;
+        for (int b = bit + step; b < limit && model.hasPiece(player, b); b += step) count++;
+        for (int b = bit - step; b >= 0 && model.hasPiece(player, b); b -= step) count++;
+        return count;
+    }
+
+    public static boolean checkAllDirections(char[][] board, int nrRows, int nrCols, int x, int row, int col)
     {
-        return (checkRight(row, col) || checkDown(row, col) ||
-                checkDownDiagonalRight(row, col) || checkDownDiagonalLeft(row, col));
+        return (checkRight(board, nrCols, x, row, col) || checkDown(board, nrRows, x, row, col) ||
+                checkDownDiagonalRight(board, nrRows, nrCols, x, row, col) || checkDownDiagonalLeft(board, nrRows, x, row, col));
     }
 
     // ===========================================================================================
@@ -54,7 +137,7 @@ public final class WinDetector
     // ===================            X pieces in a row may occur.             ===================
     // ===========================================================================================
 
-    public boolean checkRight(int row, int col)
+    public static boolean checkRight(char[][] board, int nrCols, int x, int row, int col)
     {
         if (col + x <= nrCols){
             for (int i = col + 1; i < col + x; i++) {
@@ -65,7 +148,7 @@ public final class WinDetector
         else return false;
     }
 
-    public boolean checkDown(int row, int col)
+    public static boolean checkDown(char[][] board, int nrRows, int x, int row, int col)
     {
         if (row + x <= nrRows) {
             for (int i = row + 1; i < row + x; i++) {
@@ -76,7 +159,7 @@ public final class WinDetector
         else return false;
     }
 
-    public boolean checkDownDiagonalRight(int row, int col)
+    public static boolean checkDownDiagonalRight(char[][] board, int nrRows, int nrCols, int x, int row, int col)
     {
         if (row + x <= nrRows && col + x <= nrCols) {
             int i = row + 1;
@@ -91,7 +174,7 @@ public final class WinDetector
         else return false;
     }
 
-    public boolean checkDownDiagonalLeft(int row, int col)
+    public static boolean checkDownDiagonalLeft(char[][] board, int nrRows, int x, int row, int col)
     {
         if (row + x <= nrRows && col >= x - 1) {
             int i = row + 1;